@@ -1,8 +1,12 @@
 package de.sky.meal.ordering.mealordering;
 
 import de.sky.meal.ordering.mealordering.config.AppConfig;
+import de.sky.meal.ordering.mealordering.config.BlobStoreConfiguration;
+import de.sky.meal.ordering.mealordering.config.EventStreamConfiguration;
 import de.sky.meal.ordering.mealordering.config.NotificationConfiguration;
+import de.sky.meal.ordering.mealordering.config.ObserverConfiguration;
 import de.sky.meal.ordering.mealordering.config.OrderConfiguration;
+import de.sky.meal.ordering.mealordering.config.WebsocketSessionConfiguration;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
@@ -12,7 +16,7 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 @EnableScheduling
 @EnableAsync
 @SpringBootApplication
-@EnableConfigurationProperties({AppConfig.class, OrderConfiguration.class, NotificationConfiguration.class})
+@EnableConfigurationProperties({AppConfig.class, OrderConfiguration.class, NotificationConfiguration.class, BlobStoreConfiguration.class, ObserverConfiguration.class, WebsocketSessionConfiguration.class, EventStreamConfiguration.class})
 public class InTheMealtimeApplication {
 
     public static void main(String[] args) {
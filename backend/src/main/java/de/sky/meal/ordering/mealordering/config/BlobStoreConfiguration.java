@@ -0,0 +1,9 @@
+package de.sky.meal.ordering.mealordering.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.nio.file.Path;
+
+@ConfigurationProperties(prefix = "app.config.blob-store")
+public record BlobStoreConfiguration(Path directory, boolean migrateOnStartup) {
+}
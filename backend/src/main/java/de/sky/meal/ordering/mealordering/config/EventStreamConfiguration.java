@@ -0,0 +1,10 @@
+package de.sky.meal.ordering.mealordering.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "app.config.event-stream")
+public record EventStreamConfiguration(int bufferSize, int maxClients, int queueCapacity, Duration timeout,
+                                       Duration heartbeat, Duration reconnectDelay) {
+}
@@ -2,6 +2,7 @@ package de.sky.meal.ordering.mealordering.config;
 
 import com.google.common.base.Throwables;
 import de.sky.meal.ordering.mealordering.model.exceptions.ConcurrentUpdateException;
+import de.sky.meal.ordering.mealordering.model.exceptions.FileTooBigException;
 import de.sky.meal.ordering.mealordering.model.exceptions.MealtimeException;
 import de.sky.meal.ordering.mealordering.model.exceptions.RecordNotFoundException;
 import generated.sky.meal.ordering.rest.model.ErrorObject;
@@ -13,6 +14,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
 
 import java.time.OffsetDateTime;
 import java.util.stream.Collectors;
@@ -61,6 +63,11 @@ public class ExceptionMapper {
                 );
     }
 
+    @ExceptionHandler(MaxUploadSizeExceededException.class)
+    public ResponseEntity<ErrorObject> handle(MaxUploadSizeExceededException ex, WebRequest request) {
+        return handleException(HttpStatus.PAYLOAD_TOO_LARGE, new FileTooBigException("Upload", ex.getMaxUploadSize()), request);
+    }
+
     @ExceptionHandler(MealtimeException.class)
     public ResponseEntity<ErrorObject> handleException(MealtimeException ex, WebRequest request) {
         return handleException(HttpStatus.BAD_REQUEST, ex, request);
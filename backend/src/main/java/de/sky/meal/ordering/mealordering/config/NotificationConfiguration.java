@@ -2,11 +2,16 @@ package de.sky.meal.ordering.mealordering.config;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.time.Duration;
+
 @ConfigurationProperties(prefix = "app.config.notifications")
 public record NotificationConfiguration(RocketChatConfig rocketChat, String webBaseUrl) {
 
     public record RocketChatConfig(boolean enabled, String baseUrl, String user, String password,
-                                   String targetChannel) {
+                                   String targetChannel,
+                                   Duration connectTimeout, Duration readTimeout,
+                                   Duration coalesceWindow, int queueCapacity,
+                                   int maxAttempts, Duration retryBackoff) {
 
     }
 }
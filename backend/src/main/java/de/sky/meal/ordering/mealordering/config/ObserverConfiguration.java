@@ -0,0 +1,50 @@
+package de.sky.meal.ordering.mealordering.config;
+
+import jakarta.validation.constraints.Positive;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "app.config.observers")
+public record ObserverConfiguration(
+        boolean asyncDispatch,
+        @Positive int queueCapacity,
+        @Positive int lanesPerObserver,
+        OverflowPolicy overflowPolicy,
+        Duration overflowTimeout,
+        OutboxConfig outbox,
+        ChangeEventsConfig changeEvents
+) {
+
+    public record OutboxConfig(@Positive int batchSize, Duration pollInterval, Duration deliveryTimeout, @Positive int maxAttempts) {
+    }
+
+    public record ChangeEventsConfig(Duration coalesceWindow, Duration maxLatency, PayloadMode payloadMode) {
+    }
+
+    public enum PayloadMode {
+        /**
+         * Events only name their subjects, clients refetch them
+         */
+        NONE,
+        /**
+         * Order events carry the full order
+         */
+        SNAPSHOT,
+        /**
+         * Order events carry a patch against the previously sent version of the order, or the full order if there is none
+         */
+        PATCH
+    }
+
+    public enum OverflowPolicy {
+        /**
+         * Wait up to the overflow timeout for space in the queue, reject the event afterwards
+         */
+        BLOCK,
+        /**
+         * Reject the event right away
+         */
+        DROP
+    }
+}
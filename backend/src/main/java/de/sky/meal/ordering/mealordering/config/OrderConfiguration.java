@@ -10,6 +10,8 @@ public record OrderConfiguration(
         String housekeepingCronExpression,
         @Positive
         Duration closedOrderLingering,
+        @Positive
+        Duration tombstoneRetention,
         OrderStateTimeouts stateTimeouts
 ) {
 
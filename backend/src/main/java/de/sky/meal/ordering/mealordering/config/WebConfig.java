@@ -14,6 +14,10 @@ import org.springframework.core.Ordered;
 import org.springframework.core.annotation.Order;
 import org.springframework.core.io.Resource;
 import org.springframework.http.CacheControl;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.ResourceHttpMessageConverter;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
@@ -23,6 +27,9 @@ import org.springframework.web.servlet.resource.PathResourceResolver;
 import org.springframework.web.servlet.resource.ResourceResolverChain;
 
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
@@ -88,6 +95,11 @@ public class WebConfig implements WebMvcConfigurer {
                 });
     }
 
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.replaceAll(c -> c.getClass() == ResourceHttpMessageConverter.class ? new FileChannelResourceHttpMessageConverter() : c);
+    }
+
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
         registry.addResourceHandler("/**")
@@ -97,6 +109,27 @@ public class WebConfig implements WebMvcConfigurer {
                 .addResolver(new IndexFallbackResourceResolver());
     }
 
+    private static class FileChannelResourceHttpMessageConverter extends ResourceHttpMessageConverter {
+        @Override
+        protected void writeContent(Resource resource, HttpOutputMessage outputMessage) throws HttpMessageNotWritableException {
+            if (!resource.isFile()) {
+                super.writeContent(resource, outputMessage);
+                return;
+            }
+
+            try (var channel = FileChannel.open(resource.getFile().toPath(), StandardOpenOption.READ)) {
+                var target = Channels.newChannel(outputMessage.getBody());
+                var size = channel.size();
+
+                long position = 0;
+                while (position < size)
+                    position += channel.transferTo(position, size - position, target);
+            } catch (IOException e) {
+                throw new HttpMessageNotWritableException("Could not transfer file " + resource, e);
+            }
+        }
+    }
+
     @Slf4j
     private static class IndexFallbackResourceResolver extends PathResourceResolver {
         @Override
@@ -0,0 +1,28 @@
+package de.sky.meal.ordering.mealordering.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "app.config.websocket")
+public record WebsocketSessionConfiguration(int maxSessions, int queueCapacity, Duration maxLag,
+                                            SlowConsumerPolicy slowConsumerPolicy, ClusterConfig cluster) {
+
+    /**
+     * Relays messages to the sessions of the other backend nodes, see {@code ClusterMessageBroadcaster}
+     */
+    public record ClusterConfig(boolean enabled, Duration batchWindow, int maxBatchSize, int queueCapacity,
+                                Duration pollInterval) {
+    }
+
+    public enum SlowConsumerPolicy {
+        /**
+         * Close the session, the client reconnects and refetches everything
+         */
+        DISCONNECT,
+        /**
+         * Keep the session and drop the messages it can not take anymore
+         */
+        DROP
+    }
+}
@@ -0,0 +1,63 @@
+package de.sky.meal.ordering.mealordering.endpoint;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.function.Function;
+
+final class EntityTags {
+
+    private EntityTags() {
+    }
+
+    static boolean matches(String ifNoneMatch, UUID version) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank() || version == null)
+            return false;
+
+        var current = version.toString();
+
+        return Arrays.stream(ifNoneMatch.split(","))
+                .map(EntityTags::normalize)
+                .anyMatch(tag -> tag.equals("*") || tag.equalsIgnoreCase(current));
+    }
+
+    static <T> UUID collectionVersion(Collection<T> entities, Function<T, UUID> id, Function<T, UUID> version) {
+        var buffer = ByteBuffer.allocate(Integer.BYTES + entities.size() * 4 * Long.BYTES)
+                .putInt(entities.size());
+
+        for (var entity : entities) {
+            put(buffer, id.apply(entity));
+            put(buffer, version.apply(entity));
+        }
+
+        return UUID.nameUUIDFromBytes(buffer.array());
+    }
+
+    static <T> ResponseEntity<T> notModified(UUID version) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .header(HttpHeaders.ETAG, version.toString())
+                .build();
+    }
+
+    private static void put(ByteBuffer buffer, UUID uuid) {
+        buffer.putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits());
+    }
+
+    private static String normalize(String tag) {
+        var result = tag.trim();
+
+        if (result.startsWith("W/"))
+            result = result.substring(2);
+
+        if (result.length() >= 2 && result.startsWith("\"") && result.endsWith("\""))
+            result = result.substring(1, result.length() - 1);
+
+        return result;
+    }
+}
@@ -0,0 +1,42 @@
+package de.sky.meal.ordering.mealordering.endpoint;
+
+import de.sky.meal.ordering.mealordering.service.EventStreamBroadcaster;
+import de.sky.meal.ordering.mealordering.service.WebsocketTopics;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Not part of the OpenAPI spec, as the generated interfaces can not stream, just like the websocket.
+ */
+@Controller
+@RequiredArgsConstructor
+public class EventStreamController {
+
+    private final EventStreamBroadcaster eventStream;
+
+    @GetMapping(path = "/api/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamEvents(@RequestHeader(name = "Last-Event-ID", required = false) String lastEventId,
+                                                   @RequestParam(name = "topics", required = false) List<String> topics) {
+        var subscribed = Optional.ofNullable(topics)
+                .orElseGet(List::of)
+                .stream()
+                .map(WebsocketTopics::parse)
+                .flatMap(Optional::stream)
+                .collect(Collectors.toUnmodifiableSet());
+
+        return eventStream.connect(lastEventId, subscribed)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+    }
+}
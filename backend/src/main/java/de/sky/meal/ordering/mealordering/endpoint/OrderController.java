@@ -1,9 +1,9 @@
 package de.sky.meal.ordering.mealordering.endpoint;
 
-import de.sky.meal.ordering.mealordering.observers.OrderChangeAggregator;
 import de.sky.meal.ordering.mealordering.service.OrderRepository;
 import generated.sky.meal.ordering.rest.api.OrderApi;
 import generated.sky.meal.ordering.rest.model.Order;
+import generated.sky.meal.ordering.rest.model.OrderChanges;
 import generated.sky.meal.ordering.rest.model.OrderInfosPatch;
 import generated.sky.meal.ordering.rest.model.OrderPositionPatch;
 import io.micrometer.core.instrument.MeterRegistry;
@@ -21,7 +21,6 @@ import java.util.UUID;
 public class OrderController implements OrderApi {
 
     private final OrderRepository orderRepository;
-    private final OrderChangeAggregator observer;
 
     private final MeterRegistry meterRegistry;
 
@@ -38,33 +37,55 @@ public class OrderController implements OrderApi {
     public ResponseEntity<Order> createOrder(UUID restaurantId) {
         var order = orderRepository.createNewEmptyOrder(LocalDate.now(), restaurantId);
 
-        observer.onNewOrder(order);
-
         meterRegistry.counter("order.create", "entity", "order").increment();
 
         return toResponse(order);
     }
 
     @Override
-    public ResponseEntity<Order> fetchOrder(UUID id) {
+    public ResponseEntity<Order> fetchOrder(UUID id, String ifNoneMatch) {
+        if (ifNoneMatch != null) {
+            var version = orderRepository.readOrderVersion(id);
+            if (EntityTags.matches(ifNoneMatch, version)) {
+                meterRegistry.counter("order.fetch.not-modified", "entity", "order", "kind", "single").increment();
+                return EntityTags.notModified(version);
+            }
+        }
+
         return toResponse(orderRepository.readOrder(id));
     }
 
     @Override
-    public ResponseEntity<List<Order>> fetchOrders() {
+    public ResponseEntity<List<Order>> fetchOrders(String ifNoneMatch) {
         var orders = orderRepository.readOrders();
+        var version = EntityTags.collectionVersion(orders, Order::getId, Order::getVersion);
 
         meterRegistry.gauge("order.count", orders.size());
 
-        return ResponseEntity.ok(orders);
+        if (EntityTags.matches(ifNoneMatch, version)) {
+            meterRegistry.counter("order.fetch.not-modified", "entity", "order", "kind", "all").increment();
+            return EntityTags.notModified(version);
+        }
+
+        return ResponseEntity.ok()
+                .header(HttpHeaders.ETAG, version.toString())
+                .body(orders);
+    }
+
+    @Override
+    public ResponseEntity<OrderChanges> fetchOrderChanges(String since) {
+        var changes = orderRepository.readOrderChanges(since);
+
+        meterRegistry.counter("order.fetch.changes", "entity", "order", "full", String.valueOf(changes.getFull())).increment();
+        meterRegistry.summary("order.fetch.changes.size", "entity", "order").record(changes.getOrders().size() + changes.getDeletedOrders().size());
+
+        return ResponseEntity.ok(changes);
     }
 
     @Override
     public ResponseEntity<Order> setOrderInfo(UUID orderId, UUID etag, OrderInfosPatch orderInfos) {
         var order = orderRepository.updateOrderInfos(orderId, etag, orderInfos);
 
-        observer.onOrderInfoUpdated(order);
-
         meterRegistry.counter("order.info.update", "entity", "order").increment();
 
         return toResponse(order);
@@ -72,8 +93,6 @@ public class OrderController implements OrderApi {
 
     @Override
     public ResponseEntity<Void> deleteOrder(UUID id, UUID etag) {
-        observer.onBeforeOrderDelete(id);
-
         orderRepository.deleteOrder(id, etag);
 
         meterRegistry.counter("order.delete", "entity", "order").increment();
@@ -86,8 +105,6 @@ public class OrderController implements OrderApi {
     public ResponseEntity<Order> createOrderPosition(UUID orderId, OrderPositionPatch orderPosition) {
         var order = orderRepository.addOrderPosition(orderId, orderPosition);
 
-        observer.onOrderPositionCreated(order);
-
         meterRegistry.counter("order.position.add", "entity", "order").increment();
 
         return toResponse(order);
@@ -97,8 +114,6 @@ public class OrderController implements OrderApi {
     public ResponseEntity<Order> updateOrderPosition(UUID orderId, UUID orderPositionId, OrderPositionPatch orderPosition) {
         var order = orderRepository.updateOrderPosition(orderId, orderPositionId, orderPosition);
 
-        observer.onOrderPositionUpdated(order);
-
         meterRegistry.counter("order.position.update", "entity", "order").increment();
 
         return toResponse(order);
@@ -108,8 +123,6 @@ public class OrderController implements OrderApi {
     public ResponseEntity<Order> deleteOrderPosition(UUID orderId, UUID orderPositionId) {
         var order = orderRepository.removeOrderPosition(orderId, orderPositionId);
 
-        observer.onOrderPositionDeleted(order);
-
         meterRegistry.counter("order.position.delete", "entity", "order").increment();
 
         return toResponse(order);
@@ -121,8 +134,6 @@ public class OrderController implements OrderApi {
 
         meterRegistry.counter("order.state.lock", "entity", "order").increment();
 
-        observer.onLockOrder(order);
-
         return toResponse(order);
     }
 
@@ -132,8 +143,6 @@ public class OrderController implements OrderApi {
 
         meterRegistry.counter("order.state.ordered", "entity", "order").increment();
 
-        observer.onOrderIsOrdered(order);
-
         return toResponse(order);
     }
 
@@ -143,8 +152,6 @@ public class OrderController implements OrderApi {
 
         meterRegistry.counter("order.state.delivered", "entity", "order").increment();
 
-        observer.onOrderDelivered(order);
-
         return toResponse(order);
     }
 
@@ -154,8 +161,6 @@ public class OrderController implements OrderApi {
 
         meterRegistry.counter("order.state.reopen", "entity", "order").increment();
 
-        observer.onOrderIsReopened(order);
-
         return toResponse(order);
     }
 
@@ -165,15 +170,11 @@ public class OrderController implements OrderApi {
 
         meterRegistry.counter("order.state.revoke", "entity", "order").increment();
 
-        observer.onOrderIsRevoked(order);
-
         return toResponse(order);
     }
 
     @Override
     public ResponseEntity<Order> archiveOrder(UUID id, UUID etag) {
-        observer.onBeforeOrderArchive(id);
-
         var order = orderRepository.archiveOrder(id, etag);
 
         meterRegistry.counter("order.state.archived", "entity", "order").increment();
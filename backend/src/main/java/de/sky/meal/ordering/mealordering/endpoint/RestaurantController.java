@@ -3,8 +3,8 @@ package de.sky.meal.ordering.mealordering.endpoint;
 import de.sky.meal.ordering.mealordering.model.DatabaseFile;
 import de.sky.meal.ordering.mealordering.model.exceptions.FileTooBigException;
 import de.sky.meal.ordering.mealordering.model.exceptions.TooManyEntitiesException;
-import de.sky.meal.ordering.mealordering.observers.RestaurantChangeObserver;
-import de.sky.meal.ordering.mealordering.observers.RestaurantChangeObserverAggregator;
+import de.sky.meal.ordering.mealordering.observers.RestaurantCatalog;
+import de.sky.meal.ordering.mealordering.service.MenuPageThumbnailService;
 import de.sky.meal.ordering.mealordering.service.RestaurantRepository;
 import generated.sky.meal.ordering.rest.api.RestaurantApi;
 import generated.sky.meal.ordering.rest.model.Restaurant;
@@ -14,7 +14,6 @@ import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.ws.rs.BadRequestException;
 import jakarta.ws.rs.core.HttpHeaders;
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.InvalidMediaTypeException;
 import org.springframework.http.ResponseEntity;
@@ -22,7 +21,6 @@ import org.springframework.stereotype.Controller;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -32,11 +30,11 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class RestaurantController implements RestaurantApi {
 
-    private static final int FILE_SIZE_LIMIT = 5 * 1024 * 1024; // 5MB
     private static final int MAX_MENU_PAGES = 20;
 
     private final RestaurantRepository restaurantRepository;
-    private final RestaurantChangeObserverAggregator observer;
+    private final RestaurantCatalog restaurantCatalog;
+    private final MenuPageThumbnailService thumbnailService;
 
     private final MeterRegistry meterRegistry;
 
@@ -44,7 +42,7 @@ public class RestaurantController implements RestaurantApi {
     public ResponseEntity<Restaurant> createRestaurant(RestaurantPatch restaurant) {
         var result = restaurantRepository.createRestaurant(restaurant);
 
-        observer.onRestaurantCreate(result);
+        restaurantCatalog.onRestaurantCreate(result);
 
         meterRegistry.counter("restaurant.create", "entity", "restaurant").increment();
 
@@ -53,18 +51,26 @@ public class RestaurantController implements RestaurantApi {
 
     @Override
     public ResponseEntity<Void> deleteRestaurant(UUID id, UUID etag) {
-        observer.onBeforeDeleteRestaurant(id);
-
         restaurantRepository.deleteRestaurant(id, etag);
 
+        restaurantCatalog.onRestaurantDeleted(id);
+
         meterRegistry.counter("restaurant.delete", "entity", "restaurant").increment();
 
         return ResponseEntity.ok().build();
     }
 
     @Override
-    public ResponseEntity<Restaurant> fetchRestaurant(UUID id) {
-        return toResponse(restaurantRepository.readRestaurant(id));
+    public ResponseEntity<Restaurant> fetchRestaurant(UUID id, String ifNoneMatch) {
+        if (ifNoneMatch != null) {
+            var version = restaurantCatalog.readRestaurantVersion(id);
+            if (EntityTags.matches(ifNoneMatch, version)) {
+                meterRegistry.counter("restaurant.fetch.not-modified", "entity", "restaurant", "kind", "single").increment();
+                return EntityTags.notModified(version);
+            }
+        }
+
+        return toResponse(restaurantCatalog.readRestaurant(id));
     }
 
     @Override
@@ -73,19 +79,27 @@ public class RestaurantController implements RestaurantApi {
     }
 
     @Override
-    public ResponseEntity<List<Restaurant>> fetchRestaurants() {
-        var restaurants = restaurantRepository.readRestaurants();
+    public ResponseEntity<List<Restaurant>> fetchRestaurants(String ifNoneMatch) {
+        var restaurants = restaurantCatalog.readRestaurants();
+        var version = EntityTags.collectionVersion(restaurants, Restaurant::getId, Restaurant::getVersion);
 
         meterRegistry.gauge("restaurant.count", restaurants.size());
 
-        return ResponseEntity.ok(restaurants);
+        if (EntityTags.matches(ifNoneMatch, version)) {
+            meterRegistry.counter("restaurant.fetch.not-modified", "entity", "restaurant", "kind", "all").increment();
+            return EntityTags.notModified(version);
+        }
+
+        return ResponseEntity.ok()
+                .header(HttpHeaders.ETAG, version.toString())
+                .body(restaurants);
     }
 
     @Override
     public ResponseEntity<Restaurant> updateRestaurant(UUID id, UUID etag, RestaurantPatch restaurant) {
         var result = restaurantRepository.updateRestaurant(id, etag, restaurant);
 
-        observer.onRestaurantUpdate(result);
+        restaurantCatalog.onRestaurantUpdate(result);
 
         meterRegistry.counter("restaurant.update", "entity", "restaurant").increment();
 
@@ -94,16 +108,16 @@ public class RestaurantController implements RestaurantApi {
 
     @Override
     public ResponseEntity<Restaurant> addRestaurantsMenuPage(UUID restaurantId, MultipartFile file) {
-        if (file.getSize() > FILE_SIZE_LIMIT)
-            throw new FileTooBigException("MenuPage File", file.getSize(), FILE_SIZE_LIMIT);
+        if (file.getSize() > RestaurantRepository.FILE_SIZE_LIMIT)
+            throw new FileTooBigException("MenuPage File", file.getSize(), RestaurantRepository.FILE_SIZE_LIMIT);
 
-        var restaurant = restaurantRepository.readRestaurant(restaurantId);
+        var restaurant = restaurantCatalog.readRestaurant(restaurantId);
         if (restaurant.getMenuPages().size() > MAX_MENU_PAGES)
             throw new TooManyEntitiesException("MenuPages for Restaurant", restaurant.getMenuPages().size(), MAX_MENU_PAGES);
 
         var result = restaurantRepository.addMenuPageToRestaurant(restaurantId, convertFile(file));
 
-        observer.onRestaurantUpdate(result);
+        restaurantCatalog.onRestaurantUpdate(result);
 
         meterRegistry.counter("restaurant.update", "entity", "restaurant").increment();
         meterRegistry.counter("restaurant.menupage.add", "entity", "restaurant").increment();
@@ -113,19 +127,23 @@ public class RestaurantController implements RestaurantApi {
 
     @Override
     public ResponseEntity<Resource> fetchRestaurantsMenuPage(UUID restaurantId, UUID pageId, Boolean thumbnail) {
-        var result = restaurantRepository.readMenuPage(restaurantId, pageId);
+        var result = Optional.ofNullable(thumbnail)
+                .filter(Boolean::booleanValue)
+                .flatMap(_ -> thumbnailService.readThumbnail(restaurantId, pageId))
+                .orElseGet(() -> restaurantRepository.readMenuPage(restaurantId, pageId));
 
         return ResponseEntity.ok()
                 .contentType(result.contentType())
+                .contentLength(result.size())
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + result.name() + "\"")
-                .body(new ByteArrayResource(result.data()));
+                .body(result.content());
     }
 
     @Override
     public ResponseEntity<Restaurant> deleteRestaurantsMenuPage(UUID restaurantId, UUID pageId) {
         var result = restaurantRepository.deleteMenuPageForRestaurant(restaurantId, pageId);
 
-        observer.onRestaurantUpdate(result);
+        restaurantCatalog.onRestaurantUpdate(result);
 
         meterRegistry.counter("restaurant.update", "entity", "restaurant").increment();
         meterRegistry.counter("restaurant.menupage.delete", "entity", "restaurant").increment();
@@ -144,10 +162,9 @@ public class RestaurantController implements RestaurantApi {
             return new DatabaseFile(
                     Optional.ofNullable(file.getOriginalFilename()).orElse("file-" + System.currentTimeMillis()),
                     file.getContentType(),
-                    file.getBytes()
+                    file.getSize(),
+                    file.getResource()
             );
-        } catch (IOException e) {
-            throw new BadRequestException("File could not be read: " + file.getName(), e);
         } catch (InvalidMediaTypeException e) {
             throw new BadRequestException("ContentType of file could not be read: " + file.getContentType(), e);
         }
@@ -1,19 +1,20 @@
 package de.sky.meal.ordering.mealordering.model;
 
 import io.micrometer.common.util.StringUtils;
+import org.springframework.core.io.Resource;
 import org.springframework.http.MediaType;
 import org.springframework.util.Assert;
 
 import java.util.Objects;
 
-public record DatabaseFile(String name, MediaType contentType, byte[] data) {
+public record DatabaseFile(String name, MediaType contentType, long size, Resource content) {
     public DatabaseFile {
         Assert.isTrue(StringUtils.isNotBlank(name), "Name must not be blank");
         Objects.requireNonNull(contentType);
-        Objects.requireNonNull(data);
+        Objects.requireNonNull(content);
     }
 
-    public DatabaseFile(String name, String contentType, byte[] data) {
-        this(name, MediaType.parseMediaType(contentType), data);
+    public DatabaseFile(String name, String contentType, long size, Resource content) {
+        this(name, MediaType.parseMediaType(contentType), size, content);
     }
 }
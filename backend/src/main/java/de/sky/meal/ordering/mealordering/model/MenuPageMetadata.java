@@ -0,0 +1,6 @@
+package de.sky.meal.ordering.mealordering.model;
+
+import java.util.UUID;
+
+public record MenuPageMetadata(UUID id, UUID restaurantId, String name, String mediaType, Long size, String hash) {
+}
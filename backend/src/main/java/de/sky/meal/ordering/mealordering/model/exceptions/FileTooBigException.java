@@ -4,4 +4,8 @@ public class FileTooBigException extends MealtimeException {
     public FileTooBigException(String whatThing, long size, long maxSize) {
         super("Filesize too big", "Only %d bytes allowed, but %s was %d".formatted(maxSize, whatThing, size));
     }
+
+    public FileTooBigException(String whatThing, long maxSize) {
+        super("Filesize too big", "Only %d bytes allowed, but %s was larger".formatted(maxSize, whatThing));
+    }
 }
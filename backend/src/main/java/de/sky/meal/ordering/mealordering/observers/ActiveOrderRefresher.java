@@ -0,0 +1,22 @@
+package de.sky.meal.ordering.mealordering.observers;
+
+import de.sky.meal.ordering.mealordering.service.OrderRepository;
+import generated.sky.meal.ordering.rest.model.ChangeEvent;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+@Service
+@RequiredArgsConstructor
+public class ActiveOrderRefresher implements RemoteChangeObserver {
+
+    private final OrderRepository orderRepository;
+
+    @Override
+    public void onRemoteChange(ChangeEvent event) {
+        switch (event.getEventType()) {
+            case ORDERS_CHANGED, ORDER_UPDATED -> orderRepository.refreshActiveOrders(event.getSubjects());
+            case null, default -> {
+            }
+        }
+    }
+}
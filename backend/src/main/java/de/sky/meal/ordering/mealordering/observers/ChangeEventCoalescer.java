@@ -0,0 +1,179 @@
+package de.sky.meal.ordering.mealordering.observers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.sky.meal.ordering.mealordering.config.ObserverConfiguration;
+import de.sky.meal.ordering.mealordering.service.WebsocketTopics;
+import generated.sky.meal.ordering.rest.model.ChangeEvent;
+import generated.sky.meal.ordering.rest.model.Order;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+@Slf4j
+@Service
+public class ChangeEventCoalescer {
+
+    private final Duration window;
+    private final Duration maxLatency;
+
+    private final JsonMessageBroadcaster broadcaster;
+    private final TaskScheduler scheduler;
+    private final MeterRegistry meterRegistry;
+    private final OrderDeltaEncoder deltaEncoder;
+
+    private final Map<ChangeEvent.EventTypeEnum, Pending> pending = new EnumMap<>(ChangeEvent.EventTypeEnum.class);
+
+    public ChangeEventCoalescer(ObserverConfiguration config, JsonMessageBroadcaster broadcaster, TaskScheduler scheduler, ObjectMapper mapper, MeterRegistry meterRegistry) {
+        this.window = config.changeEvents().coalesceWindow();
+        this.maxLatency = config.changeEvents().maxLatency();
+        this.broadcaster = broadcaster;
+        this.scheduler = scheduler;
+        this.meterRegistry = meterRegistry;
+        this.deltaEncoder = new OrderDeltaEncoder(mapper, config.changeEvents().payloadMode(), meterRegistry);
+    }
+
+    @PreDestroy
+    public void flushAll() {
+        List<Map.Entry<ChangeEvent.EventTypeEnum, Pending>> remaining;
+        synchronized (pending) {
+            remaining = List.copyOf(pending.entrySet());
+            pending.clear();
+        }
+
+        remaining.forEach(e -> emit(e.getKey(), e.getValue().subjects, e.getValue().orders, e.getValue().merged));
+    }
+
+    /**
+     * Events of the same type are held back until no further one arrived for the coalesce window,
+     * but never longer than the max latency, and are then sent as one event with all subjects.
+     */
+    public void send(ChangeEvent event) {
+        send(event, List.of());
+    }
+
+    /**
+     * The orders are the state after the change and only of interest if a payload mode is configured,
+     * of several versions of the same order only the latest is sent.
+     */
+    public void send(ChangeEvent event, Collection<Order> orders) {
+        var type = event.getEventType();
+
+        meterRegistry.counter("websocket.change-event", Tags.of("type", type.name(), "stage", "received")).increment();
+
+        if (window.isZero() || window.isNegative()) {
+            emit(type, event.getSubjects(), byId(orders), 1);
+            return;
+        }
+
+        synchronized (pending) {
+            var now = Instant.now();
+
+            var current = pending.get(type);
+            if (current == null) {
+                current = new Pending(now);
+                pending.put(type, current);
+
+                scheduler.schedule(() -> flushIfDue(type), now.plus(window));
+            }
+
+            current.add(event.getSubjects(), orders, now);
+        }
+    }
+
+    private void flushIfDue(ChangeEvent.EventTypeEnum type) {
+        Pending due;
+
+        synchronized (pending) {
+            var current = pending.get(type);
+            if (current == null)
+                return;
+
+            var dueAt = current.dueAt();
+            if (Instant.now().isBefore(dueAt)) {
+                scheduler.schedule(() -> flushIfDue(type), dueAt);
+                return;
+            }
+
+            due = pending.remove(type);
+        }
+
+        emit(type, due.subjects, due.orders, due.merged);
+    }
+
+    private void emit(ChangeEvent.EventTypeEnum type, Collection<UUID> subjects, Map<UUID, Order> orders, int merged) {
+        var event = ChangeEvent.builder()
+                .eventType(type)
+                .subjects(subjects == null ? new ArrayList<>() : new ArrayList<>(subjects))
+                .build();
+
+        if (deltaEncoder.isEnabled() && isOrderEvent(type))
+            event.setOrderDeltas(new ArrayList<>(deltaEncoder.encode(event.getSubjects(), orders)));
+
+        log.info("Broadcasting change event {} for {} subjects merged from {} events", type, event.getSubjects().size(), merged);
+
+        broadcaster.send(event, WebsocketTopics.of(event));
+
+        meterRegistry.counter("websocket.change-event", Tags.of("type", type.name(), "stage", "sent")).increment();
+        meterRegistry.summary("websocket.change-event.merged", Tags.of("type", type.name())).record(merged);
+    }
+
+    private static boolean isOrderEvent(ChangeEvent.EventTypeEnum type) {
+        return type == ChangeEvent.EventTypeEnum.ORDERS_CHANGED || type == ChangeEvent.EventTypeEnum.ORDER_UPDATED;
+    }
+
+    private static Map<UUID, Order> byId(Collection<Order> orders) {
+        var result = new LinkedHashMap<UUID, Order>();
+        orders.forEach(order -> result.put(order.getId(), order));
+        return result;
+    }
+
+    private final class Pending {
+
+        private final Instant first;
+        private final Set<UUID> subjects = new LinkedHashSet<>();
+        private final Map<UUID, Order> orders = new LinkedHashMap<>();
+
+        private Instant last;
+        private int merged;
+
+        Pending(Instant first) {
+            this.first = first;
+            this.last = first;
+        }
+
+        void add(Collection<UUID> eventSubjects, Collection<Order> eventOrders, Instant ts) {
+            if (eventSubjects != null) {
+                subjects.addAll(eventSubjects);
+
+                // a subject changed without a known state must not be answered with an older one
+                eventSubjects.forEach(orders::remove);
+            }
+            eventOrders.forEach(order -> orders.put(order.getId(), order));
+
+            last = ts;
+            merged++;
+        }
+
+        Instant dueAt() {
+            var quiet = last.plus(window);
+            var capped = first.plus(maxLatency);
+
+            return quiet.isBefore(capped) ? quiet : capped;
+        }
+    }
+}
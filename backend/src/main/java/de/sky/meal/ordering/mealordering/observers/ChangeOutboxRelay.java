@@ -0,0 +1,213 @@
+package de.sky.meal.ordering.mealordering.observers;
+
+import de.sky.meal.ordering.mealordering.config.ObserverConfiguration;
+import de.sky.meal.ordering.mealordering.service.ChangeOutbox;
+import generated.sky.meal.ordering.rest.model.Order;
+import generated.sky.meal.ordering.rest.model.Restaurant;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ChangeOutboxRelay {
+
+    private final ObserverConfiguration config;
+
+    private final DataSource dataSource;
+    private final ChangeOutbox outbox;
+
+    private final OrderChangeAggregator orderObserver;
+    private final RestaurantChangeObserverAggregator restaurantObserver;
+
+    private final MeterRegistry meterRegistry;
+
+    private volatile boolean running = true;
+    private Thread worker;
+
+    @PostConstruct
+    public void start() {
+        worker = Thread.ofPlatform()
+                .name("change-outbox-relay")
+                .daemon()
+                .start(this::run);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        worker.interrupt();
+        worker.join(Duration.ofSeconds(5));
+    }
+
+    private void run() {
+        while (running) {
+            try (var connection = dataSource.getConnection()) {
+                connection.setAutoCommit(true);
+
+                try (var statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + ChangeOutbox.NOTIFICATION_CHANNEL);
+                }
+
+                var listener = connection.unwrap(PGConnection.class);
+                log.info("Relaying change events, listening on {}", ChangeOutbox.NOTIFICATION_CHANNEL);
+
+                while (running) {
+                    relayPending();
+
+                    // returns early on a notification, the timeout is the poll fallback for missed ones
+                    listener.getNotifications((int) config.outbox().pollInterval().toMillis());
+                }
+            } catch (SQLException e) {
+                log.warn("Listening for change events failed, retrying in {}", config.outbox().pollInterval(), e);
+                pause();
+            } catch (Exception e) {
+                log.error("Error while relaying change events", e);
+                pause();
+            }
+        }
+    }
+
+    private void relayPending() {
+        ChangeOutbox.Relayed relayed;
+        do {
+            relayed = outbox.relay(config.outbox().batchSize(), config.outbox().maxAttempts(), this::deliver);
+
+            for (var entry : relayed.parked()) {
+                log.error("Change event {} for {} was not processed after {} attempts, parking it", entry.event(), entry.entityId(), entry.attempts() + 1);
+                meterRegistry.counter("outbox.relay.parked", Tags.of("event", entry.event().name())).increment();
+            }
+
+            meterRegistry.counter("outbox.relay.retried").increment(relayed.selected() - relayed.removed());
+        } while (running && relayed.removed() == config.outbox().batchSize());
+    }
+
+    /**
+     * Returns only once the observers processed every entry or the delivery timeout passed, with the observers that
+     * failed or rejected an entry, so only those get it again.
+     */
+    private Map<Long, ChangeOutbox.Failure> deliver(List<ChangeOutbox.Entry> entries) {
+        var deliveries = new LinkedHashMap<ChangeOutbox.Entry, Map<String, CompletableFuture<Void>>>();
+        var failures = new HashMap<Long, ChangeOutbox.Failure>();
+
+        for (var entry : entries) {
+            try {
+                deliveries.put(entry, deliver(entry));
+            } catch (UncheckedIOException e) {
+                // a payload that can not be read fails the same way every time
+                log.error("Change event {} for {} could not be read", entry.event(), entry.entityId(), e);
+                failures.put(entry.id(), new ChangeOutbox.Failure(Set.of(), true));
+            }
+        }
+
+        var deadline = System.nanoTime() + config.outbox().deliveryTimeout().toNanos();
+        var now = OffsetDateTime.now();
+
+        deliveries.forEach((entry, processed) -> {
+            var failed = new TreeSet<String>();
+
+            processed.forEach((observer, done) -> {
+                try {
+                    done.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while relaying change events", e);
+                } catch (ExecutionException | TimeoutException e) {
+                    failed.add(observer);
+                }
+            });
+
+            if (failed.isEmpty()) {
+                meterRegistry.timer("outbox.relay.lag", Tags.of("event", entry.event().name()))
+                        .record(Duration.between(entry.createdAt(), now));
+            } else {
+                log.warn("Change event {} for {} was not processed by {}", entry.event(), entry.entityId(), failed);
+                failures.put(entry.id(), new ChangeOutbox.Failure(failed, false));
+            }
+        });
+
+        meterRegistry.counter("outbox.relay.events").increment(entries.size() - failures.size());
+
+        return failures;
+    }
+
+    private Map<String, CompletableFuture<Void>> deliver(ChangeOutbox.Entry entry) {
+        var observers = entry.pendingObservers();
+
+        return switch (entry.event()) {
+            case ORDER_CREATED -> deliverOrder(entry, observers, "onNewOrder", OnOrderChange::onNewOrder);
+            case ORDER_INFO_UPDATED -> deliverOrder(entry, observers, "onOrderInfoUpdated", OnOrderChange::onOrderInfoUpdated);
+            case ORDER_POSITION_CREATED -> deliverOrder(entry, observers, "onOrderPositionCreated", OnOrderChange::onOrderPositionCreated);
+            case ORDER_POSITION_UPDATED -> deliverOrder(entry, observers, "onOrderPositionUpdated", OnOrderChange::onOrderPositionUpdated);
+            case ORDER_POSITION_DELETED -> deliverOrder(entry, observers, "onOrderPositionDeleted", OnOrderChange::onOrderPositionDeleted);
+            case ORDER_LOCKED -> deliverOrder(entry, observers, "onLockOrder", OnOrderChange::onLockOrder);
+            case ORDER_REOPENED -> deliverOrder(entry, observers, "onOrderIsReopened", OnOrderChange::onOrderIsReopened);
+            case ORDER_ORDERED -> deliverOrder(entry, observers, "onOrderIsOrdered", OnOrderChange::onOrderIsOrdered);
+            case ORDER_DELIVERED -> deliverOrder(entry, observers, "onOrderDelivered", OnOrderChange::onOrderDelivered);
+            case ORDER_REVOKED -> deliverOrder(entry, observers, "onOrderIsRevoked", OnOrderChange::onOrderIsRevoked);
+            case ORDER_ARCHIVED ->
+                    orderObserver.deliver("onBeforeOrderArchive", entry.entityId(), observers, d -> d.onBeforeOrderArchive(entry.entityId()));
+            case ORDER_DELETED ->
+                    orderObserver.deliver("onBeforeOrderDelete", entry.entityId(), observers, d -> d.onBeforeOrderDelete(entry.entityId()));
+
+            case RESTAURANT_CREATED -> deliverRestaurant(entry, observers, "onRestaurantCreate", RestaurantChangeObserver::onRestaurantCreate);
+            case RESTAURANT_UPDATED -> deliverRestaurant(entry, observers, "onRestaurantUpdate", RestaurantChangeObserver::onRestaurantUpdate);
+            case RESTAURANT_DELETED -> {
+                var processed = new HashMap<>(restaurantObserver.deliver("onBeforeDeleteRestaurant", entry.entityId(), observers, d -> d.onBeforeDeleteRestaurant(entry.entityId())));
+                restaurantObserver.deliver("onRestaurantDeleted", entry.entityId(), observers, d -> d.onRestaurantDeleted(entry.entityId()))
+                        .forEach((observer, done) -> processed.merge(observer, done, CompletableFuture::allOf));
+                yield processed;
+            }
+        };
+    }
+
+    private Map<String, CompletableFuture<Void>> deliverOrder(ChangeOutbox.Entry entry, Set<String> observers, String event, BiConsumer<OnOrderChange, Order> call) {
+        var order = order(entry);
+        return orderObserver.deliver(event, order.getId(), observers, d -> call.accept(d, order));
+    }
+
+    private Map<String, CompletableFuture<Void>> deliverRestaurant(ChangeOutbox.Entry entry, Set<String> observers, String event, BiConsumer<RestaurantChangeObserver, Restaurant> call) {
+        var restaurant = restaurant(entry);
+        return restaurantObserver.deliver(event, restaurant.getId(), observers, d -> call.accept(d, restaurant));
+    }
+
+    private Order order(ChangeOutbox.Entry entry) {
+        return outbox.readPayload(entry, Order.class);
+    }
+
+    private Restaurant restaurant(ChangeOutbox.Entry entry) {
+        return outbox.readPayload(entry, Restaurant.class);
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(config.outbox().pollInterval());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
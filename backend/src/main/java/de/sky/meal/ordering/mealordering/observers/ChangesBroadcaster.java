@@ -17,13 +17,21 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class ChangesBroadcaster implements OnOrderChange, RestaurantChangeObserver {
 
-    private final JsonMessageBroadcaster broadcaster;
+    private final ChangeEventCoalescer broadcaster;
 
     public void notifyOrdersChanged(UUID id) {
         notifyOrdersChanged(List.of(id));
     }
 
     public void notifyOrdersChanged(Collection<UUID> ids) {
+        notifyOrdersChanged(ids, List.of());
+    }
+
+    public void notifyOrdersChanged(Order order) {
+        notifyOrdersChanged(List.of(order.getId()), List.of(order));
+    }
+
+    private void notifyOrdersChanged(Collection<UUID> ids, Collection<Order> orders) {
         var changeEvent = ChangeEvent.builder()
                 .eventType(ChangeEvent.EventTypeEnum.ORDERS_CHANGED)
                 .subjects(new ArrayList<>(ids))
@@ -31,7 +39,7 @@ public class ChangesBroadcaster implements OnOrderChange, RestaurantChangeObserv
 
         log.info("Broadcasting orders change event {}", changeEvent.getEventType());
 
-        broadcaster.send(changeEvent);
+        broadcaster.send(changeEvent, orders);
     }
 
     public void notifyOrderUpdated(UUID id) {
@@ -39,6 +47,14 @@ public class ChangesBroadcaster implements OnOrderChange, RestaurantChangeObserv
     }
 
     public void notifyOrderUpdated(Collection<UUID> ids) {
+        notifyOrderUpdated(ids, List.of());
+    }
+
+    public void notifyOrderUpdated(Order order) {
+        notifyOrderUpdated(List.of(order.getId()), List.of(order));
+    }
+
+    private void notifyOrderUpdated(Collection<UUID> ids, Collection<Order> orders) {
         var changeEvent = ChangeEvent.builder()
                 .eventType(ChangeEvent.EventTypeEnum.ORDER_UPDATED)
                 .subjects(new ArrayList<>(ids))
@@ -46,7 +62,7 @@ public class ChangesBroadcaster implements OnOrderChange, RestaurantChangeObserv
 
         log.info("Broadcasting order update event {}", changeEvent.getEventType());
 
-        broadcaster.send(changeEvent);
+        broadcaster.send(changeEvent, orders);
     }
 
     public void notifyRestaurantsChanged(UUID id) {
@@ -96,57 +112,57 @@ public class ChangesBroadcaster implements OnOrderChange, RestaurantChangeObserv
 
     @Override
     public void onNewOrder(Order order) {
-        notifyOrdersChanged(order.getId());
+        notifyOrdersChanged(order);
     }
 
     @Override
     public void onOrderInfoUpdated(Order order) {
-        notifyOrderUpdated(order.getId());
+        notifyOrderUpdated(order);
     }
 
     @Override
     public void onLockOrder(Order order) {
-        notifyOrderUpdated(order.getId());
+        notifyOrdersChanged(order);
     }
 
     @Override
     public void onOrderIsReopened(Order order) {
-        notifyOrderUpdated(order.getId());
+        notifyOrdersChanged(order);
     }
 
     @Override
     public void onOrderIsOrdered(Order order) {
-        notifyOrderUpdated(order.getId());
+        notifyOrdersChanged(order);
     }
 
     @Override
     public void onOrderDelivered(Order order) {
-        notifyOrderUpdated(order.getId());
+        notifyOrdersChanged(order);
     }
 
     @Override
     public void onOrderIsRevoked(Order order) {
-        notifyOrderUpdated(order.getId());
+        notifyOrdersChanged(order);
     }
 
     @Override
     public void onOrderPositionCreated(Order order) {
-        notifyOrderUpdated(order.getId());
+        notifyOrderUpdated(order);
     }
 
     @Override
     public void onOrderPositionUpdated(Order order) {
-        notifyOrderUpdated(order.getId());
+        notifyOrderUpdated(order);
     }
 
     @Override
     public void onOrderPositionDeleted(Order order) {
-        notifyOrderUpdated(order.getId());
+        notifyOrderUpdated(order);
     }
 
     @Override
     public void onBeforeOrderArchive(UUID id) {
-        notifyOrderUpdated(id);
+        notifyOrdersChanged(id);
     }
 
     @Override
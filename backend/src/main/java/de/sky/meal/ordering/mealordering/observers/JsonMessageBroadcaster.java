@@ -6,6 +6,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.util.Objects;
+import java.util.Set;
 
 @Slf4j
 @Service
@@ -24,4 +25,14 @@ public class JsonMessageBroadcaster {
             log.error("Could not send JSON message with object: {}", message, e);
         }
     }
+
+    public <T> void send(T message, Set<String> topics) {
+        Objects.requireNonNull(message);
+
+        try {
+            broadcaster.sendMessage(mapper.writeValueAsString(message), topics);
+        } catch (Exception e) {
+            log.error("Could not send JSON message with object: {}", message, e);
+        }
+    }
 }
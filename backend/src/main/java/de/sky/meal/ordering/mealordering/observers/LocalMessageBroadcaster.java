@@ -0,0 +1,7 @@
+package de.sky.meal.ordering.mealordering.observers;
+
+/**
+ * Delivers to the clients connected to this node only, the primary {@link MessageBroadcaster} fans out to all of them.
+ */
+public interface LocalMessageBroadcaster extends MessageBroadcaster {
+}
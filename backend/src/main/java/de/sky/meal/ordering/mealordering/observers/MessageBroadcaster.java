@@ -1,6 +1,13 @@
 package de.sky.meal.ordering.mealordering.observers;
 
+import java.util.Set;
+
 public interface MessageBroadcaster {
 
     void sendMessage(String message);
+
+    /**
+     * Sends only to sessions subscribed to one of the topics and to sessions without any subscription.
+     */
+    void sendMessage(String message, Set<String> topics);
 }
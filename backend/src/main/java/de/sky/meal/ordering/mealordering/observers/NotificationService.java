@@ -1,7 +1,6 @@
 package de.sky.meal.ordering.mealordering.observers;
 
 import de.sky.meal.ordering.mealordering.config.NotificationConfiguration;
-import de.sky.meal.ordering.mealordering.service.RestaurantRepository;
 import de.sky.meal.ordering.mealordering.service.RocketChatService;
 import de.sky.meal.ordering.mealordering.utils.TableFormatter;
 import generated.sky.meal.ordering.rest.model.Order;
@@ -23,7 +22,7 @@ public class NotificationService implements OnOrderChange {
 
     private final NotificationConfiguration config;
 
-    private final RestaurantRepository restaurantRepository;
+    private final RestaurantCatalog restaurantCatalog;
 
     private final RocketChatService chatService;
 
@@ -31,11 +30,11 @@ public class NotificationService implements OnOrderChange {
     public void onNewOrder(Order order) {
         log.info("Notification: New order {}", order.getId());
 
-        var restaurant = restaurantRepository.readRestaurant(order.getRestaurantId());
+        var restaurantName = restaurantCatalog.readRestaurantName(order.getRestaurantId());
 
         chatService.sendMessage("""
                 Neue [Bestellung](%s) beim Restaurant %s aufgemacht.
-                """.formatted(getUrl(order), restaurant.getName())
+                """.formatted(getUrl(order), restaurantName)
         );
     }
 
@@ -43,11 +42,11 @@ public class NotificationService implements OnOrderChange {
     public void onLockOrder(Order order) {
         log.info("Notification: Lock order {}", order.getId());
 
-        var restaurant = restaurantRepository.readRestaurant(order.getRestaurantId());
+        var restaurantName = restaurantCatalog.readRestaurantName(order.getRestaurantId());
 
         chatService.sendMessage("""
                 [Bestellung](%s) beim Restaurant %s ist jetzt gesperrt, um die Bestellung aufzugeben. Keine neuen Bestellungen möglich.
-                """.formatted(getUrl(order), restaurant.getName())
+                """.formatted(getUrl(order), restaurantName)
         );
     }
 
@@ -55,11 +54,11 @@ public class NotificationService implements OnOrderChange {
     public void onOrderIsReopened(Order order) {
         log.info("Notification: Reopen order {}", order.getId());
 
-        var restaurant = restaurantRepository.readRestaurant(order.getRestaurantId());
+        var restaurantName = restaurantCatalog.readRestaurantName(order.getRestaurantId());
 
         chatService.sendMessage("""
                 [Bestellung](%s) beim Restaurant %s ist wieder entsperrt. Bestellungen wieder möglich.
-                """.formatted(getUrl(order), restaurant.getName())
+                """.formatted(getUrl(order), restaurantName)
         );
     }
 
@@ -67,7 +66,7 @@ public class NotificationService implements OnOrderChange {
     public void onOrderIsOrdered(Order order) {
         log.info("Notification: Order order {}", order.getId());
 
-        var restaurant = restaurantRepository.readRestaurant(order.getRestaurantId());
+        var restaurantName = restaurantCatalog.readRestaurantName(order.getRestaurantId());
 
         var formatter = new TableFormatter(" | ", "",
                 new TableFormatter.ColumnDefinition("Name", TableFormatter.Alignment.Right, 16),
@@ -103,7 +102,7 @@ public class NotificationService implements OnOrderChange {
                 Bezahlt:     %6.2f €
                 Trinkgeld:   %6.2f €
                 ```
-                """.formatted(getUrl(order), restaurant.getName(), table, sumPrice, sumPaid, sumTip)
+                """.formatted(getUrl(order), restaurantName, table, sumPrice, sumPaid, sumTip)
         );
     }
 
@@ -112,11 +111,11 @@ public class NotificationService implements OnOrderChange {
     public void onOrderDelivered(Order order) {
         log.info("Notification: Deliver order {}", order.getId());
 
-        var restaurant = restaurantRepository.readRestaurant(order.getRestaurantId());
+        var restaurantName = restaurantCatalog.readRestaurantName(order.getRestaurantId());
 
         chatService.sendMessage("""
                 @here Essen von der %s [Bestellung](%s) ist da!
-                """.formatted(restaurant.getName(), getUrl(order))
+                """.formatted(restaurantName, getUrl(order))
         );
     }
 
@@ -124,11 +123,11 @@ public class NotificationService implements OnOrderChange {
     public void onOrderIsRevoked(Order order) {
         log.info("Notification: Revoke order {}", order.getId());
 
-        var restaurant = restaurantRepository.readRestaurant(order.getRestaurantId());
+        var restaurantName = restaurantCatalog.readRestaurantName(order.getRestaurantId());
 
         chatService.sendMessage("""
                 [Bestellung](%s) beim Restaurant %s ist geschlossen worden. Vielleicht ist der Laden geschlossen oder es gibt andere Probleme...
-                """.formatted(getUrl(order), restaurant.getName())
+                """.formatted(getUrl(order), restaurantName)
         );
     }
 
@@ -0,0 +1,209 @@
+package de.sky.meal.ordering.mealordering.observers;
+
+import de.sky.meal.ordering.mealordering.config.ObserverConfiguration;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.ClassUtils;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+@Slf4j
+final class ObserverDispatcher<D> implements AutoCloseable {
+
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(250);
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(5);
+
+    private final String aggregator;
+    private final ObserverConfiguration config;
+    private final MeterRegistry meterRegistry;
+
+    private final List<D> delegates;
+    private final Map<D, List<Lane>> lanes = new IdentityHashMap<>();
+
+    private volatile boolean closed = false;
+
+    ObserverDispatcher(String aggregator, List<D> delegates, ObserverConfiguration config, MeterRegistry meterRegistry) {
+        this.aggregator = aggregator;
+        this.delegates = List.copyOf(delegates);
+        this.config = Objects.requireNonNull(config);
+        this.meterRegistry = Objects.requireNonNull(meterRegistry);
+
+        if (!config.asyncDispatch())
+            return;
+
+        var capacity = Math.max(1, config.queueCapacity() / config.lanesPerObserver());
+
+        for (var delegate : this.delegates) {
+            if (delegate instanceof SynchronousObserver)
+                continue;
+
+            var name = observerName(delegate);
+            var delegateLanes = IntStream.range(0, config.lanesPerObserver())
+                    .mapToObj(i -> new Lane(delegate, name, i, capacity))
+                    .toList();
+
+            lanes.put(delegate, delegateLanes);
+
+            Gauge.builder("observer.queue.depth", delegateLanes, ls -> ls.stream().mapToInt(l -> l.queue.size()).sum())
+                    .tags(tags(name))
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Hands the call to every delegate. Calls sharing the same key are delivered to each delegate in dispatch order.
+     */
+    void dispatch(String event, Object key, Consumer<D> call) {
+        dispatch(event, key, null, call);
+    }
+
+    /**
+     * Hands the call to the named delegates, to all of them if no names are given.
+     * Returns per delegate a future that completes once it processed the call,
+     * exceptionally if it failed or the call was rejected by a full queue.
+     */
+    Map<String, CompletableFuture<Void>> dispatch(String event, Object key, Set<String> observers, Consumer<D> call) {
+        var processed = new HashMap<String, CompletableFuture<Void>>();
+
+        for (var delegate : delegates) {
+            var name = observerName(delegate);
+            if (observers != null && !observers.contains(name))
+                continue;
+
+            var done = new CompletableFuture<Void>();
+            processed.merge(name, done, CompletableFuture::allOf);
+
+            var delegateLanes = lanes.get(delegate);
+
+            if (delegateLanes == null || closed) {
+                invoke(event, delegate, call, done);
+                continue;
+            }
+
+            var lane = delegateLanes.get(Math.floorMod(Objects.hashCode(key), delegateLanes.size()));
+            lane.enqueue(new Task(event, call, System.nanoTime(), done));
+        }
+
+        return processed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        var deadline = System.nanoTime() + SHUTDOWN_TIMEOUT.toNanos();
+        for (var lane : lanes.values().stream().flatMap(List::stream).toList()) {
+            try {
+                lane.worker.join(Duration.ofNanos(Math.max(1, deadline - System.nanoTime())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (lane.worker.isAlive()) {
+                log.warn("Observer {} of {} did not finish in time, dropping {} events", lane.name, aggregator, lane.queue.size());
+                lane.worker.interrupt();
+
+                for (var task : lane.queue)
+                    task.done().completeExceptionally(new RejectedExecutionException("Observer " + lane.name + " was shut down"));
+            }
+        }
+    }
+
+    private void invoke(String event, D delegate, Consumer<D> call, CompletableFuture<Void> done) {
+        try {
+            call.accept(delegate);
+            done.complete(null);
+        } catch (Exception e) {
+            log.error("Error occurred in {} in {}", event, delegate, e);
+            done.completeExceptionally(e);
+        }
+    }
+
+    private Tags tags(String observer) {
+        return Tags.of("aggregator", aggregator, "observer", observer);
+    }
+
+    private static String observerName(Object delegate) {
+        return ClassUtils.getUserClass(delegate).getSimpleName();
+    }
+
+    private record Task(String event, Consumer<?> call, long enqueuedAt, CompletableFuture<Void> done) {
+    }
+
+    private final class Lane {
+
+        private final D delegate;
+        private final String name;
+        private final BlockingQueue<Task> queue;
+        private final Timer lag;
+        private final Thread worker;
+
+        Lane(D delegate, String name, int index, int capacity) {
+            this.delegate = delegate;
+            this.name = name;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.lag = meterRegistry.timer("observer.dispatch.lag", tags(name));
+            this.worker = Thread.ofVirtual()
+                    .name("observer-" + aggregator + "-" + name + "-" + index)
+                    .start(this::drain);
+        }
+
+        void enqueue(Task task) {
+            var accepted = switch (config.overflowPolicy()) {
+                case DROP -> queue.offer(task);
+                case BLOCK -> offerWithTimeout(task);
+            };
+
+            if (!accepted) {
+                log.warn("Queue of observer {} in {} is full, rejecting {}", name, aggregator, task.event());
+                meterRegistry.counter("observer.dispatch.dropped", tags(name).and("event", task.event()))
+                        .increment();
+                task.done().completeExceptionally(new RejectedExecutionException("Queue of observer " + name + " is full"));
+            }
+        }
+
+        private boolean offerWithTimeout(Task task) {
+            try {
+                return queue.offer(task, config.overflowTimeout().toNanos(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void drain() {
+            while (!closed || !queue.isEmpty()) {
+                Task task;
+                try {
+                    task = queue.poll(POLL_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                if (task == null)
+                    continue;
+
+                lag.record(System.nanoTime() - task.enqueuedAt(), TimeUnit.NANOSECONDS);
+                invoke(task.event(), delegate, (Consumer<D>) task.call(), task.done());
+            }
+        }
+    }
+}
@@ -1,159 +1,105 @@
 package de.sky.meal.ordering.mealordering.observers;
 
+import de.sky.meal.ordering.mealordering.config.ObserverConfiguration;
 import generated.sky.meal.ordering.rest.model.Order;
-import lombok.extern.slf4j.Slf4j;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
-@Slf4j
 @Service
 public class OrderChangeAggregator implements OnOrderChange {
 
-    private final List<OnOrderChange> delegates;
+    private final ObserverDispatcher<OnOrderChange> dispatcher;
 
-    public OrderChangeAggregator(List<OnOrderChange> delegates) {
-        this.delegates = Objects.requireNonNull(delegates);
+    public OrderChangeAggregator(ObserverConfiguration config, MeterRegistry meterRegistry, List<OnOrderChange> delegates) {
+        this.dispatcher = new ObserverDispatcher<>("order", Objects.requireNonNull(delegates), config, meterRegistry);
     }
 
     @Autowired
-    public OrderChangeAggregator(OnOrderChange... delegates) {
-        this(Arrays.asList(delegates));
+    public OrderChangeAggregator(ObserverConfiguration config, MeterRegistry meterRegistry, OnOrderChange... delegates) {
+        this(config, meterRegistry, Arrays.asList(delegates));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.close();
+    }
+
+    /**
+     * Hands the call to the named observers only, to all of them if no names are given.
+     * Returns per observer when it processed the call, exceptionally if it failed or rejected it.
+     */
+    public Map<String, CompletableFuture<Void>> deliver(String event, Object key, Set<String> observers, Consumer<OnOrderChange> call) {
+        return dispatcher.dispatch(event, key, observers, call);
     }
 
     @Override
     public void onNewOrder(Order order) {
-        for (var d : delegates) {
-            try {
-                d.onNewOrder(order);
-            } catch (Exception e) {
-                log.error("Error occurred in onNewOrder in {}", d, e);
-            }
-        }
+        dispatcher.dispatch("onNewOrder", order.getId(), d -> d.onNewOrder(order));
     }
 
     @Override
     public void onBeforeOrderDelete(UUID id) {
-        for (var d : delegates) {
-            try {
-                d.onBeforeOrderDelete(id);
-            } catch (Exception e) {
-                log.error("Error occurred in onBeforeOrderDelete in {}", d, e);
-            }
-        }
+        dispatcher.dispatch("onBeforeOrderDelete", id, d -> d.onBeforeOrderDelete(id));
     }
 
     @Override
     public void onLockOrder(Order order) {
-        for (var d : delegates) {
-            try {
-                d.onLockOrder(order);
-            } catch (Exception e) {
-                log.error("Error occurred in onLockOrder in {}", d, e);
-            }
-        }
+        dispatcher.dispatch("onLockOrder", order.getId(), d -> d.onLockOrder(order));
     }
 
     @Override
     public void onOrderIsReopened(Order order) {
-        for (var d : delegates) {
-            try {
-                d.onOrderIsReopened(order);
-            } catch (Exception e) {
-                log.error("Error occurred in onOrderIsReopened in {}", d, e);
-            }
-        }
+        dispatcher.dispatch("onOrderIsReopened", order.getId(), d -> d.onOrderIsReopened(order));
     }
 
     @Override
     public void onOrderIsOrdered(Order order) {
-        for (var d : delegates) {
-            try {
-                d.onOrderIsOrdered(order);
-            } catch (Exception e) {
-                log.error("Error occurred in onOrderIsOrdered in {}", d, e);
-            }
-        }
+        dispatcher.dispatch("onOrderIsOrdered", order.getId(), d -> d.onOrderIsOrdered(order));
     }
 
     @Override
     public void onOrderDelivered(Order order) {
-        for (var d : delegates) {
-            try {
-                d.onOrderDelivered(order);
-            } catch (Exception e) {
-                log.error("Error occurred in onOrderDelivered in {}", d, e);
-            }
-        }
+        dispatcher.dispatch("onOrderDelivered", order.getId(), d -> d.onOrderDelivered(order));
     }
 
     @Override
     public void onOrderIsRevoked(Order order) {
-        for (var d : delegates) {
-            try {
-                d.onOrderIsRevoked(order);
-            } catch (Exception e) {
-                log.error("Error occurred in onOrderIsRevoked in {}", d, e);
-            }
-        }
+        dispatcher.dispatch("onOrderIsRevoked", order.getId(), d -> d.onOrderIsRevoked(order));
     }
 
     @Override
     public void onBeforeOrderArchive(UUID id) {
-        for (var d : delegates) {
-            try {
-                d.onBeforeOrderArchive(id);
-            } catch (Exception e) {
-                log.error("Error occurred in onBeforeOrderArchive in {}", d, e);
-            }
-        }
+        dispatcher.dispatch("onBeforeOrderArchive", id, d -> d.onBeforeOrderArchive(id));
     }
 
     @Override
     public void onOrderPositionCreated(Order order) {
-        for (var d : delegates) {
-            try {
-                d.onOrderPositionCreated(order);
-            } catch (Exception e) {
-                log.error("Error occurred in onOrderPositionCreated in {}", d, e);
-            }
-        }
+        dispatcher.dispatch("onOrderPositionCreated", order.getId(), d -> d.onOrderPositionCreated(order));
     }
 
     @Override
     public void onOrderPositionUpdated(Order order) {
-        for (var d : delegates) {
-            try {
-                d.onOrderPositionUpdated(order);
-            } catch (Exception e) {
-                log.error("Error occurred in onOrderPositionUpdated in {}", d, e);
-            }
-        }
+        dispatcher.dispatch("onOrderPositionUpdated", order.getId(), d -> d.onOrderPositionUpdated(order));
     }
 
     @Override
     public void onOrderPositionDeleted(Order order) {
-        for (var d : delegates) {
-            try {
-                d.onOrderPositionDeleted(order);
-            } catch (Exception e) {
-                log.error("Error occurred in onOrderPositionDeleted in {}", d, e);
-            }
-        }
+        dispatcher.dispatch("onOrderPositionDeleted", order.getId(), d -> d.onOrderPositionDeleted(order));
     }
 
     @Override
     public void onOrderInfoUpdated(Order order) {
-        for (var d : delegates) {
-            try {
-                d.onOrderInfoUpdated(order);
-            } catch (Exception e) {
-                log.error("Error occurred in onOrderInfoUpdated in {}", d, e);
-            }
-        }
+        dispatcher.dispatch("onOrderInfoUpdated", order.getId(), d -> d.onOrderInfoUpdated(order));
     }
 }
@@ -0,0 +1,128 @@
+package de.sky.meal.ordering.mealordering.observers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import de.sky.meal.ordering.mealordering.config.ObserverConfiguration;
+import generated.sky.meal.ordering.rest.model.JsonPatchOperation;
+import generated.sky.meal.ordering.rest.model.Order;
+import generated.sky.meal.ordering.rest.model.OrderDelta;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Turns the orders of a change event into deltas against the last version that was broadcast for each of them.
+ * Callers have to hand in the versions of an order in the order they were written.
+ */
+final class OrderDeltaEncoder {
+
+    private static final int MAX_REMEMBERED_ORDERS = 1000;
+
+    private final ObjectMapper mapper;
+    private final ObserverConfiguration.PayloadMode mode;
+    private final MeterRegistry meterRegistry;
+
+    private final Cache<UUID, Order> lastSent = CacheBuilder.newBuilder()
+            .maximumSize(MAX_REMEMBERED_ORDERS)
+            .build();
+
+    OrderDeltaEncoder(ObjectMapper mapper, ObserverConfiguration.PayloadMode mode, MeterRegistry meterRegistry) {
+        this.mapper = mapper;
+        this.mode = mode;
+        this.meterRegistry = meterRegistry;
+    }
+
+    boolean isEnabled() {
+        return mode != ObserverConfiguration.PayloadMode.NONE;
+    }
+
+    /**
+     * Subjects without an order, e.g. from housekeeping that only knows the id, are marked for refetching.
+     */
+    synchronized List<OrderDelta> encode(Collection<UUID> subjects, Map<UUID, Order> orders) {
+        return subjects.stream()
+                .map(id -> encode(id, orders.get(id)))
+                .toList();
+    }
+
+    private OrderDelta encode(UUID id, Order order) {
+        if (order == null) {
+            lastSent.invalidate(id);
+            return record("refetch", OrderDelta.builder().id(id).refetch(true).build());
+        }
+
+        var base = lastSent.getIfPresent(id);
+        lastSent.put(id, order);
+
+        var delta = OrderDelta.builder()
+                .id(id)
+                .version(order.getVersion())
+                .refetch(false);
+
+        if (mode == ObserverConfiguration.PayloadMode.PATCH && base != null && !Objects.equals(base.getVersion(), order.getVersion())) {
+            var patch = new ArrayList<JsonPatchOperation>();
+            diff("", mapper.valueToTree(base), mapper.valueToTree(order), patch);
+
+            return record("patch", delta.baseVersion(base.getVersion()).patch(patch).build());
+        }
+
+        return record("snapshot", delta.snapshot(order).build());
+    }
+
+    private OrderDelta record(String kind, OrderDelta delta) {
+        meterRegistry.counter("websocket.order-delta", Tags.of("kind", kind)).increment();
+        return delta;
+    }
+
+    private static void diff(String path, JsonNode from, JsonNode to, List<JsonPatchOperation> patch) {
+        if (from.equals(to))
+            return;
+
+        if (from.isObject() && to.isObject()) {
+            for (var field : from.properties()) {
+                if (!to.has(field.getKey()))
+                    patch.add(operation(JsonPatchOperation.OpEnum.REMOVE, path + "/" + escape(field.getKey()), null));
+            }
+
+            for (var field : to.properties()) {
+                var fieldPath = path + "/" + escape(field.getKey());
+                var old = from.get(field.getKey());
+
+                if (old == null)
+                    patch.add(operation(JsonPatchOperation.OpEnum.ADD, fieldPath, field.getValue()));
+                else
+                    diff(fieldPath, old, field.getValue(), patch);
+            }
+            return;
+        }
+
+        // positions are not keyed in the array, so only a changed element is patched in place and anything else replaces the list
+        if (from.isArray() && to.isArray() && from.size() == to.size()) {
+            for (int i = 0; i < to.size(); i++)
+                diff(path + "/" + i, from.get(i), to.get(i), patch);
+            return;
+        }
+
+        patch.add(operation(JsonPatchOperation.OpEnum.REPLACE, path, to));
+    }
+
+    private static JsonPatchOperation operation(JsonPatchOperation.OpEnum op, String path, JsonNode value) {
+        return JsonPatchOperation.builder()
+                .op(op)
+                .path(path)
+                .value(value)
+                .build();
+    }
+
+    private static String escape(String name) {
+        return name.replace("~", "~0").replace("/", "~1");
+    }
+}
@@ -3,32 +3,38 @@ package de.sky.meal.ordering.mealordering.observers;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.Comparators;
 import de.sky.meal.ordering.mealordering.config.OrderConfiguration;
+import de.sky.meal.ordering.mealordering.service.HousekeepingJobQueue;
 import de.sky.meal.ordering.mealordering.service.OrderRepository;
+import de.sky.meal.ordering.mealordering.utils.TimerWheel;
 import generated.sky.meal.ordering.rest.model.Order;
+import generated.sky.meal.ordering.rest.model.OrderStateManagement;
+import generated.sky.meal.ordering.rest.model.OrderStateType;
 import generated.sky.meal.ordering.schema.enums.OrderState;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tags;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.jooq.DSLContext;
+import org.jooq.Condition;
+import org.jooq.impl.DSL;
 import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.Trigger;
 import org.springframework.scheduling.TriggerContext;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.function.Consumer;
-import java.util.function.Function;
+import java.util.Set;
+import java.util.UUID;
 import java.util.function.Supplier;
-import java.util.stream.Stream;
+import java.util.stream.Collectors;
 
 import static generated.sky.meal.ordering.schema.Tables.MEAL_ORDER;
 import static org.jooq.impl.DSL.and;
@@ -39,15 +45,20 @@ import static org.jooq.impl.DSL.or;
 @RequiredArgsConstructor
 public class OrderHousekeepingService implements OnOrderChange {
 
+    private static final Duration DEADLINE_TICK = Duration.ofSeconds(1);
+    private static final int JOB_BATCH_SIZE = 100;
+    private static final Set<OrderStateType> SCHEDULED_STATES = Set.of(OrderStateType.LOCKED, OrderStateType.ORDERED, OrderStateType.DELIVERED, OrderStateType.REVOKED);
+
+    private final TimerWheel<UUID, OrderStateType> deadlines = new TimerWheel<>(DEADLINE_TICK, Instant.now());
+
     private final Supplier<OffsetDateTime> clock = OffsetDateTime::now;
 
     private final OrderConfiguration config;
 
     private final TaskScheduler scheduler;
 
-    private final TransactionTemplate transactionTemplate;
-    private final DSLContext ctx;
     private final OrderRepository orderRepository;
+    private final HousekeepingJobQueue jobQueue;
 
     private final ChangesBroadcaster changesBroadcaster;
 
@@ -58,9 +69,12 @@ public class OrderHousekeepingService implements OnOrderChange {
         log.info("Scheduled initial startup housekeeping ...");
 
         scheduler.schedule(this::doHousekeeping, in(OffsetDateTime.now(), Duration.ofMinutes(1)));
+        scheduler.scheduleAtFixedRate(this::doDueTransitions, DEADLINE_TICK);
 
-        log.info("Do re-schedulings of orders");
-        doReschedulings();
+        meterRegistry.gauge("order.housekeeping.deadlines", Tags.of("entity", "order"), deadlines, TimerWheel::size);
+
+        var recomputed = orderRepository.recomputeNextTransitions();
+        log.info("Recomputed next transition of {} orders", recomputed);
     }
 
     @Scheduled(cron = "${app.config.orders.housekeeping-cron-expression}")
@@ -68,6 +82,11 @@ public class OrderHousekeepingService implements OnOrderChange {
         doHousekeeping();
     }
 
+    @Scheduled(fixedDelayString = "${app.config.orders.housekeeping-job-poll-interval}")
+    public void pollHousekeepingJobs() {
+        doDueJobs();
+    }
+
     public void doHousekeeping() {
         var timer = meterRegistry.timer("order.housekeeping", Tags.of("type", "housekeeping", "entity", "order"));
 
@@ -76,69 +95,119 @@ public class OrderHousekeepingService implements OnOrderChange {
 
             var sw = Stopwatch.createStarted();
 
-            doDeletions();
-            doReopens();
-            doDeliveries();
-            doArchives();
+            doDeletions(DSL.noCondition());
+            doReopens(DSL.noCondition());
+            doDeliveries(DSL.noCondition());
+            doArchives(DSL.noCondition());
 
             log.info("Finished global housekeeping in {}", sw.stop());
         });
     }
 
+    /**
+     * Transitions only the orders whose local deadline passed, the job queue poll catches everything else.
+     */
+    public void doDueTransitions() {
+        var due = deadlines.advance(clock.get().toInstant());
+        if (due.isEmpty())
+            return;
+
+        due.entrySet()
+                .stream()
+                .collect(Collectors.groupingBy(entry -> OrderState.valueOf(entry.getValue().name()), Collectors.mapping(Map.Entry::getKey, Collectors.toList())))
+                .forEach(this::doTransitions);
+    }
+
+    public void doDueJobs() {
+        abandonExhaustedJobs();
+
+        while (true) {
+            var jobs = jobQueue.claimDue(JOB_BATCH_SIZE);
+            if (jobs.isEmpty())
+                return;
+
+            var idsByState = jobs.stream()
+                    .collect(Collectors.groupingBy(HousekeepingJobQueue.Job::state, Collectors.mapping(HousekeepingJobQueue.Job::orderId, Collectors.toList())));
+
+            var touched = new HashSet<UUID>();
+            idsByState.forEach((state, ids) -> touched.addAll(doTransitions(state, ids)));
+
+            // a claimed job whose order was not transitioned is out of date, it is put back with the order's current deadline
+            var untouched = jobs.stream()
+                    .map(HousekeepingJobQueue.Job::orderId)
+                    .filter(id -> !touched.contains(id))
+                    .toList();
+
+            if (!untouched.isEmpty()) {
+                log.info("Re-scheduling {} housekeeping jobs that were not due anymore", untouched.size());
+                orderRepository.rescheduleHousekeeping(untouched);
+            }
+
+            meterRegistry.counter("order.housekeeping.job", Tags.of("entity", "order", "result", "transitioned")).increment(jobs.size() - untouched.size());
+            meterRegistry.counter("order.housekeeping.job", Tags.of("entity", "order", "result", "rescheduled")).increment(untouched.size());
+
+            if (jobs.size() < JOB_BATCH_SIZE || untouched.size() == jobs.size())
+                return;
+        }
+    }
+
+    private void abandonExhaustedJobs() {
+        try {
+            var abandoned = jobQueue.abandonExhausted();
+
+            abandoned.forEach(job -> log.warn("Giving up housekeeping job of order {} in state {} after {} attempts", job.orderId(), job.state(), job.attempts()));
+            meterRegistry.counter("order.housekeeping.job", Tags.of("entity", "order", "result", "abandoned")).increment(abandoned.size());
+        } catch (Exception e) {
+            log.error("Could not remove exhausted housekeeping jobs", e);
+        }
+    }
+
     @Override
     public void onLockOrder(Order order) {
-        log.info("Scheduled lock check in {}", config.stateTimeouts().lockedBeforeReopened());
-        scheduler.schedule(this::doReopens, in(order.getStateManagement().getLockedAt(), config.stateTimeouts().lockedBeforeReopened()));
+        scheduleDeadline(order);
+    }
+
+    @Override
+    public void onOrderIsReopened(Order order) {
+        deadlines.cancel(order.getId());
     }
 
     @Override
     public void onOrderIsOrdered(Order order) {
-        log.info("Scheduled ordered check in {}", config.stateTimeouts().orderedBeforeDelivered());
-        scheduler.schedule(this::doDeliveries, in(order.getStateManagement().getOrderedAt(), config.stateTimeouts().orderedBeforeDelivered()));
+        scheduleDeadline(order);
     }
 
     @Override
     public void onOrderDelivered(Order order) {
-        log.info("Scheduled delivery check in {}", config.stateTimeouts().deliveryBeforeArchive());
-        scheduler.schedule(this::doArchives, in(order.getStateManagement().getDeliveredAt(), config.stateTimeouts().deliveryBeforeArchive()));
+        scheduleDeadline(order);
     }
 
     @Override
     public void onOrderIsRevoked(Order order) {
-        log.info("Scheduled revoke check in {}", config.stateTimeouts().revokedBeforeDeleted());
-        scheduler.schedule(this::doDeletions, in(order.getStateManagement().getRevokedAt(), config.stateTimeouts().revokedBeforeDeleted()));
+        scheduleDeadline(order);
     }
 
-    private void doReschedulings() {
-        var states = Map.<OrderState, Consumer<Order>>of(
-                OrderState.LOCKED, this::onLockOrder,
-                OrderState.ORDERED, this::onOrderIsOrdered,
-                OrderState.REVOKED, this::onOrderIsRevoked,
-                OrderState.DELIVERED, this::onOrderDelivered
-        );
+    @Override
+    public void onBeforeOrderArchive(UUID id) {
+        deadlines.cancel(id);
+    }
 
-        states.forEach((state, runnable) -> {
-            var ids = transactionTemplate.execute(_ ->
-                    ctx.select(MEAL_ORDER.ID)
-                            .from(MEAL_ORDER)
-                            .where(MEAL_ORDER.STATE.eq(state))
-                            .limit(100)
-                            .fetch(MEAL_ORDER.ID)
-            );
-
-            Optional.ofNullable(ids)
-                    .orElse(List.of())
-                    .stream()
-                    .flatMap(id -> {
-                        try {
-                            return Stream.of(orderRepository.readOrder(id));
-                        } catch (Exception e) {
-                            log.warn("Order encountered an error in the meantime", e);
-                            return Stream.of();
-                        }
-                    })
-                    .forEach(runnable);
-        });
+    @Override
+    public void onBeforeOrderDelete(UUID id) {
+        deadlines.cancel(id);
+    }
+
+    private void scheduleDeadline(Order order) {
+        var next = Optional.ofNullable(order.getStateManagement())
+                .map(OrderStateManagement::getNextTransitionTimestamp);
+
+        if (next.isEmpty() || !SCHEDULED_STATES.contains(order.getOrderState())) {
+            deadlines.cancel(order.getId());
+            return;
+        }
+
+        log.info("Scheduled transition of {} order {} at {}", order.getOrderState(), order.getId(), next.get());
+        deadlines.schedule(order.getId(), order.getOrderState(), next.get().toInstant());
     }
 
     private static Trigger in(OffsetDateTime reference, Duration diff) {
@@ -160,146 +229,77 @@ public class OrderHousekeepingService implements OnOrderChange {
         };
     }
 
-    private void doDeletions() {
+    private List<UUID> doTransitions(OrderState state, Collection<UUID> ids) {
+        var scope = MEAL_ORDER.ID.in(ids);
+
+        return switch (state) {
+            case LOCKED -> doReopens(scope);
+            case ORDERED -> doDeliveries(scope);
+            case DELIVERED -> doArchives(scope);
+            case REVOKED -> doDeletions(scope);
+            default -> List.of();
+        };
+    }
+
+    private List<UUID> doDeletions(Condition scope) {
         var ts = clock.get();
 
-        var ids = doTransactionalWork("Deletions", ctx ->
-                ctx.select(MEAL_ORDER.ID)
-                        .from(MEAL_ORDER)
-                        .where(or(
-                                and(
-                                        MEAL_ORDER.STATE.in(OrderState.NEW, OrderState.OPEN),
-                                        MEAL_ORDER.CREATED_AT.lessThan(ts.minus(config.stateTimeouts().maxOpenTime()))
-                                ),
-                                and(
-                                        MEAL_ORDER.STATE.notEqual(OrderState.ARCHIVED),
-                                        MEAL_ORDER.UPDATED_AT.lessThan(ts.minus(config.stateTimeouts().maxUntouchedTime()))
-                                ),
-                                and(
-                                        MEAL_ORDER.STATE.in(OrderState.REVOKED),
-                                        MEAL_ORDER.REVOKED_AT.lessThan(ts.minus(config.stateTimeouts().revokedBeforeDeleted()))
-                                )
-                        ))
-                        .orderBy(MEAL_ORDER.CREATED_AT.asc())
-                        .limit(1000)
-                        .fetch(MEAL_ORDER.ID)
-        );
+        var deleted = doBulkWork("Deletions", () -> orderRepository.deleteOrders(scope.and(or(
+                and(
+                        MEAL_ORDER.STATE.in(OrderState.NEW, OrderState.OPEN, OrderState.REVOKED),
+                        MEAL_ORDER.NEXT_TRANSITION_AT.lessThan(ts)
+                ),
+                and(
+                        MEAL_ORDER.STATE.notEqual(OrderState.ARCHIVED),
+                        MEAL_ORDER.UPDATED_AT.lessThan(ts.minus(config.stateTimeouts().maxUntouchedTime()))
+                )
+        ))));
+
+        meterRegistry.counter("order.housekeeping.delete", Tags.of("entity", "order")).increment(deleted.size());
 
-        var deleted = ids.stream()
-                .mapToInt(id -> {
-                    try {
-                        orderRepository.deleteOrderWithoutCondition(id);
-                        return 1;
-                    } catch (Exception e) {
-                        log.error("During Order deletion an error occurred for id {}", e, e);
-                        return 0;
-                    }
-                })
-                .sum();
-
-        changesBroadcaster.notifyOrdersChanged(ids);
-
-        meterRegistry.counter("order.housekeeping.delete", Tags.of("entity", "order")).increment(deleted);
+        return deleted;
     }
 
-    private void doReopens() {
-        var ts = clock.get();
+    private List<UUID> doReopens(Condition scope) {
+        var touched = doBulkWork("Re-Openings", () -> orderRepository.reopenLockedOrders(
+                scope.and(MEAL_ORDER.NEXT_TRANSITION_AT.lessThan(clock.get()))
+        ));
 
-        var orders = doTransactionalWork("Re-Openings", ctx ->
-                ctx.select(MEAL_ORDER.ID, MEAL_ORDER.VERSION)
-                        .from(MEAL_ORDER)
-                        .where(and(
-                                MEAL_ORDER.STATE.in(OrderState.LOCKED),
-                                MEAL_ORDER.LOCKED_AT.lessThan(ts.minus(config.stateTimeouts().lockedBeforeReopened()))
-                        ))
-                        .fetch()
-        );
+        meterRegistry.counter("order.state.transition", Tags.of("from", "locked", "to", "open")).increment(touched.size());
 
-        var touched = orders.stream()
-                .map(order -> {
-                    try {
-                        return Optional.of(orderRepository.reopenOrder(order.value1(), order.value2()));
-                    } catch (Exception e) {
-                        log.error("During Order reopen an error occurred for order with id {}", order, e);
-                        return Optional.empty();
-                    }
-                })
-                .filter(Optional::isPresent)
-                .count();
-
-        orders.forEach(o -> changesBroadcaster.notifyOrdersChanged(o.value1()));
-
-        meterRegistry.counter("order.state.transition", Tags.of("from", "locked", "to", "open")).increment(touched);
+        return touched;
     }
 
-    private void doDeliveries() {
-        var ts = clock.get();
+    private List<UUID> doDeliveries(Condition scope) {
+        var touched = doBulkWork("Deliverings", () -> orderRepository.deliverOrderedOrders(
+                scope.and(MEAL_ORDER.NEXT_TRANSITION_AT.lessThan(clock.get()))
+        ));
 
-        var orders = doTransactionalWork("Deliverings", ctx ->
-                ctx.select(MEAL_ORDER.ID, MEAL_ORDER.VERSION)
-                        .from(MEAL_ORDER)
-                        .where(and(
-                                MEAL_ORDER.STATE.in(OrderState.ORDERED),
-                                MEAL_ORDER.ORDERED_AT.lessThan(ts.minus(config.stateTimeouts().orderedBeforeDelivered()))
-                        ))
-                        .fetch()
-        );
+        meterRegistry.counter("order.state.transition", Tags.of("from", "ordered", "to", "delivered")).increment(touched.size());
 
-        var touched = orders.stream()
-                .map(order -> {
-                    try {
-                        return Optional.of(orderRepository.setOrderToDelivered(order.value1(), order.value2()));
-                    } catch (Exception e) {
-                        log.error("During Order deliverings an error occurred for order with id {}", order, e);
-                        return Optional.empty();
-                    }
-                })
-                .filter(Optional::isPresent)
-                .count();
-
-        orders.forEach(o -> changesBroadcaster.notifyOrdersChanged(o.value1()));
-
-        meterRegistry.counter("order.state.transition", Tags.of("from", "ordered", "to", "delivered")).increment(touched);
+        return touched;
     }
 
-    private void doArchives() {
-        var ts = clock.get();
+    private List<UUID> doArchives(Condition scope) {
+        var touched = doBulkWork("Archivings", () -> orderRepository.archiveDeliveredOrders(
+                scope.and(MEAL_ORDER.NEXT_TRANSITION_AT.lessThan(clock.get()))
+        ));
 
-        var orders = doTransactionalWork("Archivings", ctx ->
-                ctx.select(MEAL_ORDER.ID, MEAL_ORDER.VERSION)
-                        .from(MEAL_ORDER)
-                        .where(and(
-                                MEAL_ORDER.STATE.in(OrderState.DELIVERED),
-                                MEAL_ORDER.ORDERED_AT.lessThan(ts.minus(config.stateTimeouts().deliveryBeforeArchive()))
-                        ))
-                        .fetch()
-        );
+        meterRegistry.counter("order.state.transition", Tags.of("from", "delivered", "to", "archived")).increment(touched.size());
 
-        var touched = orders.stream()
-                .map(order -> {
-                    try {
-                        return Optional.of(orderRepository.archiveOrder(order.value1(), order.value2()));
-                    } catch (Exception e) {
-                        log.error("During Order archivings an error occurred for order with id {}", order, e);
-                        return Optional.empty();
-                    }
-                })
-                .filter(Optional::isPresent)
-                .count();
-
-        orders.forEach(o -> changesBroadcaster.notifyOrdersChanged(o.value1()));
-
-        meterRegistry.counter("order.state.transition", Tags.of("from", "delivered", "to", "archived")).increment(touched);
+        return touched;
     }
 
-    private <T> List<T> doTransactionalWork(String title, Function<DSLContext, List<T>> worker) {
+    private List<UUID> doBulkWork(String title, Supplier<List<UUID>> worker) {
         try {
             var sw = Stopwatch.createStarted();
 
-            var touched = Optional.ofNullable(transactionTemplate.execute(_ -> worker.apply(ctx)))
-                    .orElse(List.of());
+            var touched = worker.get();
+
+            log.info("Housekeeping for {} touched {} records in {}", title, touched.size(), sw.stop());
 
-            log.info("Housekeeping for {} selected {} records in {}", title, touched.size(), sw.stop());
+            if (!touched.isEmpty())
+                changesBroadcaster.notifyOrdersChanged(touched);
 
             return touched;
         } catch (Exception e) {
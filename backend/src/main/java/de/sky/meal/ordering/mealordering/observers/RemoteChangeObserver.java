@@ -0,0 +1,12 @@
+package de.sky.meal.ordering.mealordering.observers;
+
+import generated.sky.meal.ordering.rest.model.ChangeEvent;
+
+/**
+ * Notified of the change events another node broadcast, before they are relayed to the clients of this node,
+ * so node local caches do not hand out what the other node just changed.
+ */
+public interface RemoteChangeObserver {
+
+    void onRemoteChange(ChangeEvent event);
+}
@@ -0,0 +1,155 @@
+package de.sky.meal.ordering.mealordering.observers;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import de.sky.meal.ordering.mealordering.model.exceptions.RecordNotFoundException;
+import de.sky.meal.ordering.mealordering.service.RestaurantRepository;
+import generated.sky.meal.ordering.rest.model.ChangeEvent;
+import generated.sky.meal.ordering.rest.model.Restaurant;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+@Slf4j
+@Service
+public class RestaurantCatalog implements RestaurantChangeObserver, SynchronousObserver, RemoteChangeObserver {
+
+    private static final int MAX_CACHED_RESTAURANTS = 500;
+
+    // bounds the staleness if a change of another node is missed
+    private static final Duration MAX_CACHED_TIME = Duration.ofMinutes(10);
+
+    private final RestaurantRepository restaurantRepository;
+
+    private final Cache<UUID, Restaurant> restaurants = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_RESTAURANTS)
+            .expireAfterWrite(MAX_CACHED_TIME)
+            .recordStats()
+            .build();
+
+    // replaced by every invalidation, so a load that raced with one can not publish its outdated order
+    private final AtomicReference<CatalogOrder> catalogOrder = new AtomicReference<>(new CatalogOrder(0, null));
+
+    public RestaurantCatalog(RestaurantRepository restaurantRepository, MeterRegistry meterRegistry) {
+        this.restaurantRepository = restaurantRepository;
+
+        GuavaCacheMetrics.monitor(meterRegistry, restaurants, "restaurant.catalog", Tags.of("entity", "restaurant"));
+    }
+
+    public List<Restaurant> readRestaurants() {
+        var order = catalogOrder.get();
+
+        if (order.ids() != null) {
+            try {
+                return order.ids().stream()
+                        .map(this::readRestaurant)
+                        .toList();
+            } catch (RecordNotFoundException e) {
+                log.info("Restaurant catalog is outdated, reloading it", e);
+            }
+        }
+
+        var loaded = restaurantRepository.readRestaurants();
+
+        loaded.forEach(this::put);
+        catalogOrder.compareAndSet(order, new CatalogOrder(order.generation(), loaded.stream()
+                .map(Restaurant::getId)
+                .toList()));
+
+        return loaded;
+    }
+
+    public Restaurant readRestaurant(UUID id) {
+        try {
+            return restaurants.get(id, () -> restaurantRepository.readRestaurant(id));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not load restaurant " + id, e.getCause());
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            throw e;
+        }
+    }
+
+    public UUID readRestaurantVersion(UUID id) {
+        return Optional.ofNullable(restaurants.getIfPresent(id))
+                .map(Restaurant::getVersion)
+                .orElseGet(() -> restaurantRepository.readRestaurantVersion(id));
+    }
+
+    public String readRestaurantName(UUID id) {
+        return readRestaurant(id).getName();
+    }
+
+    @Override
+    public void onBeforeDeleteRestaurant(UUID id) {
+        evict(id);
+    }
+
+    @Override
+    public void onRestaurantDeleted(UUID id) {
+        evict(id);
+    }
+
+    @Override
+    public void onRestaurantCreate(Restaurant restaurant) {
+        put(restaurant);
+        invalidateCatalogOrder();
+    }
+
+    @Override
+    public void onRestaurantUpdate(Restaurant restaurant) {
+        var previousName = Optional.ofNullable(restaurants.getIfPresent(restaurant.getId()))
+                .map(Restaurant::getName)
+                .orElse(null);
+
+        put(restaurant);
+
+        if (!Objects.equals(previousName, restaurant.getName()))
+            invalidateCatalogOrder();
+    }
+
+    @Override
+    public void onRemoteChange(ChangeEvent event) {
+        switch (event.getEventType()) {
+            case RESTAURANTS_CHANGED, RESTAURANT_UPDATED -> event.getSubjects().forEach(this::evict);
+            case null, default -> {
+            }
+        }
+    }
+
+    private void put(Restaurant restaurant) {
+        restaurants.asMap()
+                .merge(restaurant.getId(), restaurant, (existing, incoming) -> isNewer(existing, incoming) ? existing : incoming);
+    }
+
+    private void evict(UUID id) {
+        restaurants.invalidate(id);
+        invalidateCatalogOrder();
+    }
+
+    private void invalidateCatalogOrder() {
+        catalogOrder.updateAndGet(order -> new CatalogOrder(order.generation() + 1, null));
+    }
+
+    private static boolean isNewer(Restaurant existing, Restaurant incoming) {
+        if (existing.getVersion().equals(incoming.getVersion()) || existing.getUpdatedAt() == null || incoming.getUpdatedAt() == null)
+            return false;
+
+        return existing.getUpdatedAt().isAfter(incoming.getUpdatedAt());
+    }
+
+    private record CatalogOrder(long generation, List<UUID> ids) {
+    }
+}
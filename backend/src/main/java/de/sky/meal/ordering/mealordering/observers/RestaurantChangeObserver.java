@@ -9,6 +9,9 @@ public interface RestaurantChangeObserver {
     default void onBeforeDeleteRestaurant(UUID id) {
     }
 
+    default void onRestaurantDeleted(UUID id) {
+    }
+
     default void onRestaurantCreate(Restaurant restaurant) {
     }
 
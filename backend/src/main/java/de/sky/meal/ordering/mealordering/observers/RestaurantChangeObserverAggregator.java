@@ -1,60 +1,65 @@
 package de.sky.meal.ordering.mealordering.observers;
 
+import de.sky.meal.ordering.mealordering.config.ObserverConfiguration;
 import generated.sky.meal.ordering.rest.model.Restaurant;
-import lombok.extern.slf4j.Slf4j;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
-@Slf4j
 @Service
 public class RestaurantChangeObserverAggregator implements RestaurantChangeObserver {
 
-    private final List<RestaurantChangeObserver> delegates;
+    private final ObserverDispatcher<RestaurantChangeObserver> dispatcher;
 
-    public RestaurantChangeObserverAggregator(List<RestaurantChangeObserver> delegates) {
-        this.delegates = Objects.requireNonNull(delegates);
+    public RestaurantChangeObserverAggregator(ObserverConfiguration config, MeterRegistry meterRegistry, List<RestaurantChangeObserver> delegates) {
+        this.dispatcher = new ObserverDispatcher<>("restaurant", Objects.requireNonNull(delegates), config, meterRegistry);
     }
 
     @Autowired
-    public RestaurantChangeObserverAggregator(RestaurantChangeObserver... delegates) {
-        this(Arrays.asList(delegates));
+    public RestaurantChangeObserverAggregator(ObserverConfiguration config, MeterRegistry meterRegistry, RestaurantChangeObserver... delegates) {
+        this(config, meterRegistry, Arrays.asList(delegates));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.close();
+    }
+
+    /**
+     * Hands the call to the named observers only, to all of them if no names are given.
+     * Returns per observer when it processed the call, exceptionally if it failed or rejected it.
+     */
+    public Map<String, CompletableFuture<Void>> deliver(String event, Object key, Set<String> observers, Consumer<RestaurantChangeObserver> call) {
+        return dispatcher.dispatch(event, key, observers, call);
     }
 
     @Override
     public void onBeforeDeleteRestaurant(UUID id) {
-        for (var d : delegates) {
-            try {
-                d.onBeforeDeleteRestaurant(id);
-            } catch (Exception e) {
-                log.error("Error occurred in onBeforeDeleteRestaurant in {}", d, e);
-            }
-        }
+        dispatcher.dispatch("onBeforeDeleteRestaurant", id, d -> d.onBeforeDeleteRestaurant(id));
+    }
+
+    @Override
+    public void onRestaurantDeleted(UUID id) {
+        dispatcher.dispatch("onRestaurantDeleted", id, d -> d.onRestaurantDeleted(id));
     }
 
     @Override
     public void onRestaurantCreate(Restaurant restaurant) {
-        for (var d : delegates) {
-            try {
-                d.onRestaurantCreate(restaurant);
-            } catch (Exception e) {
-                log.error("Error occurred in onRestaurantCreate in {}", d, e);
-            }
-        }
+        dispatcher.dispatch("onRestaurantCreate", restaurant.getId(), d -> d.onRestaurantCreate(restaurant));
     }
 
     @Override
     public void onRestaurantUpdate(Restaurant restaurant) {
-        for (var d : delegates) {
-            try {
-                d.onRestaurantUpdate(restaurant);
-            } catch (Exception e) {
-                log.error("Error occurred in onRestaurantUpdate in {}", d, e);
-            }
-        }
+        dispatcher.dispatch("onRestaurantUpdate", restaurant.getId(), d -> d.onRestaurantUpdate(restaurant));
     }
 }
@@ -0,0 +1,8 @@
+package de.sky.meal.ordering.mealordering.observers;
+
+/**
+ * Marks observers that have to be notified on the calling thread even if asynchronous dispatch is enabled,
+ * e.g. caches that must reflect a change before the request returns.
+ */
+public interface SynchronousObserver {
+}
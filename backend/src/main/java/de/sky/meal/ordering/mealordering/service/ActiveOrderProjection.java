@@ -0,0 +1,187 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import de.sky.meal.ordering.mealordering.config.OrderConfiguration;
+import generated.sky.meal.ordering.rest.model.Order;
+import generated.sky.meal.ordering.rest.model.OrderStateType;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+@Slf4j
+@Service
+public class ActiveOrderProjection {
+
+    private static final Set<OrderStateType> CLOSED_STATES = Set.of(OrderStateType.ARCHIVED, OrderStateType.REVOKED);
+
+    private final OrderConfiguration config;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<UUID, Order> orders = new ConcurrentHashMap<>();
+    private final Map<UUID, Long> removedWhileLoading = new ConcurrentHashMap<>();
+    private final AtomicReference<OffsetDateTime> lastReconciliation = new AtomicReference<>();
+
+    private volatile boolean initialized = false;
+
+    public ActiveOrderProjection(OrderConfiguration config, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.meterRegistry = meterRegistry;
+
+        meterRegistry.gaugeMapSize("order.projection.size", Tags.of("entity", "order"), orders);
+        meterRegistry.gauge("order.projection.staleness", Tags.of("entity", "order"), lastReconciliation, ref ->
+                Optional.ofNullable(ref.get())
+                        .map(ts -> Duration.between(ts, OffsetDateTime.now()).toMillis() / 1000.0)
+                        .orElse(Double.NaN)
+        );
+    }
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    public Optional<Order> get(UUID id) {
+        var order = Optional.ofNullable(orders.get(id));
+
+        countRead("single", order.isPresent());
+
+        return order;
+    }
+
+    public Optional<List<Order>> getAll() {
+        countRead("all", initialized);
+
+        if (!initialized)
+            return Optional.empty();
+
+        var now = OffsetDateTime.now();
+
+        return Optional.of(
+                orders.values()
+                        .stream()
+                        .filter(o -> isActive(o, now))
+                        .sorted(Comparator.comparing(Order::getCreatedAt).reversed())
+                        .toList()
+        );
+    }
+
+    public Map<UUID, UUID> versions() {
+        return orders.values()
+                .stream()
+                .collect(Collectors.toMap(Order::getId, Order::getVersion));
+    }
+
+    /**
+     * To be called before the orders for {@link #initialize} are read, orders removed afterwards are not put back by it.
+     */
+    public long startLoading() {
+        return System.nanoTime();
+    }
+
+    public synchronized void initialize(Collection<Order> loaded, long loadStartedAt) {
+        // a later load would only put back what was removed since the first one
+        if (initialized)
+            return;
+
+        loaded.stream()
+                .filter(order -> !wasRemovedSince(order, loadStartedAt))
+                .forEach(this::update);
+
+        initialized = true;
+        removedWhileLoading.clear();
+        lastReconciliation.set(OffsetDateTime.now());
+
+        log.info("Initialized active order projection with {} orders", orders.size());
+    }
+
+    public void update(Order order) {
+        if (order == null)
+            return;
+
+        if (!isActive(order, OffsetDateTime.now())) {
+            orders.remove(order.getId());
+            return;
+        }
+
+        orders.merge(order.getId(), order, (existing, incoming) -> isNewer(existing, incoming) ? existing : incoming);
+    }
+
+    public void remove(UUID id) {
+        orders.remove(id);
+
+        if (!initialized)
+            removedWhileLoading.put(id, System.nanoTime());
+    }
+
+    public void removeByRestaurant(UUID restaurantId) {
+        orders.values().removeIf(o -> restaurantId.equals(o.getRestaurantId()));
+
+        if (!initialized)
+            removedWhileLoading.put(restaurantId, System.nanoTime());
+    }
+
+    public void reconcile(Collection<Order> reloaded, Collection<UUID> vanished) {
+        reloaded.forEach(this::update);
+        vanished.forEach(orders::remove);
+
+        lastReconciliation.set(OffsetDateTime.now());
+
+        meterRegistry.counter("order.projection.drift", Tags.of("entity", "order", "reason", "outdated")).increment(reloaded.size());
+        meterRegistry.counter("order.projection.drift", Tags.of("entity", "order", "reason", "vanished")).increment(vanished.size());
+
+        if (!reloaded.isEmpty() || !vanished.isEmpty())
+            log.info("Reconciled active order projection: {} reloaded, {} vanished", reloaded.size(), vanished.size());
+    }
+
+    private boolean isActive(Order order, OffsetDateTime now) {
+        if (!CLOSED_STATES.contains(order.getOrderState()))
+            return true;
+
+        var threshold = now.minus(config.closedOrderLingering());
+        var management = order.getStateManagement();
+
+        return management != null && (
+                isAfter(management.getRevokedAt(), threshold) || isAfter(management.getArchivedAt(), threshold)
+        );
+    }
+
+    private void countRead(String kind, boolean hit) {
+        meterRegistry.counter("order.projection.read", Tags.of("entity", "order", "kind", kind, "result", hit ? "hit" : "miss"))
+                .increment();
+    }
+
+    private static boolean isAfter(OffsetDateTime ts, OffsetDateTime threshold) {
+        return ts != null && !ts.isBefore(threshold);
+    }
+
+    private boolean wasRemovedSince(Order order, long loadStartedAt) {
+        return isRemovedSince(order.getId(), loadStartedAt) || isRemovedSince(order.getRestaurantId(), loadStartedAt);
+    }
+
+    private boolean isRemovedSince(UUID id, long loadStartedAt) {
+        var removedAt = id == null ? null : removedWhileLoading.get(id);
+        return removedAt != null && removedAt - loadStartedAt >= 0;
+    }
+
+    /**
+     * Orders are stamped with the database clock while their row is locked, so the later change has the later timestamp.
+     */
+    private static boolean isNewer(Order existing, Order incoming) {
+        if (existing.getUpdatedAt() == null || incoming.getUpdatedAt() == null)
+            return false;
+
+        return existing.getUpdatedAt().isAfter(incoming.getUpdatedAt());
+    }
+}
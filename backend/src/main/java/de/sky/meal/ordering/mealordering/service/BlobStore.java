@@ -0,0 +1,16 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import org.springframework.core.io.Resource;
+
+import java.io.InputStream;
+import java.util.Optional;
+
+public interface BlobStore {
+
+    StoredBlob store(InputStream content);
+
+    Optional<Resource> load(String hash);
+
+    record StoredBlob(String hash, long size) {
+    }
+}
@@ -0,0 +1,54 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Ring buffer of the latest messages, numbered from 1 on. Not thread safe.
+ */
+final class ChangeEventLog {
+
+    private final Entry[] entries;
+    private long lastId = 0;
+
+    ChangeEventLog(int capacity) {
+        this.entries = new Entry[capacity];
+    }
+
+    Entry append(String message, Set<String> topics) {
+        var entry = new Entry(++lastId, message, topics);
+        entries[slot(entry.id())] = entry;
+        return entry;
+    }
+
+    /**
+     * All entries after the given id, or nothing if some of them were already overwritten or the id is unknown.
+     */
+    Optional<List<Entry>> after(long id) {
+        var oldestId = Math.max(1, lastId - entries.length + 1);
+        if (id < oldestId - 1 || id > lastId)
+            return Optional.empty();
+
+        var result = new ArrayList<Entry>((int) (lastId - id));
+        for (var i = id + 1; i <= lastId; i++)
+            result.add(entries[slot(i)]);
+
+        return Optional.of(result);
+    }
+
+    private int slot(long id) {
+        return (int) (id % entries.length);
+    }
+
+    /**
+     * @param topics {@code null} if the message is meant for everyone
+     */
+    record Entry(long id, String message, Set<String> topics) {
+
+        boolean isFor(Set<String> subscribed) {
+            return subscribed.isEmpty() || topics == null || topics.stream().anyMatch(subscribed::contains);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.jooq.DSLContext;
+import org.jooq.JSONB;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+import static generated.sky.meal.ordering.schema.Tables.CHANGE_OUTBOX;
+import static generated.sky.meal.ordering.schema.Tables.CHANGE_OUTBOX_DEAD_LETTER;
+
+@Service
+@RequiredArgsConstructor
+public class ChangeOutbox {
+
+    public static final String NOTIFICATION_CHANNEL = "change_outbox";
+
+    private final TransactionTemplate transactionTemplate;
+    private final DSLContext ctx;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Has to be called inside the transaction that performs the change, the event is only visible once it commits.
+     */
+    public void append(Event event, UUID entityId, Object payload) {
+        ctx.insertInto(CHANGE_OUTBOX)
+                .set(CHANGE_OUTBOX.EVENT, event.name())
+                .set(CHANGE_OUTBOX.ENTITY_ID, entityId)
+                .set(CHANGE_OUTBOX.PAYLOAD, payload == null ? null : JSONB.valueOf(serialize(payload)))
+                .execute();
+
+        // delivered on commit, several notifications of one transaction are folded into one
+        ctx.execute("NOTIFY " + NOTIFICATION_CHANNEL);
+    }
+
+    /**
+     * Hands the oldest pending entries to the handler and settles them in the same transaction once it returned.
+     * The handler has to return only after the entries were processed, with the observers that failed per entry id.
+     * Entries without failures are removed, failed ones are relayed again to the failed observers only, and parked in the
+     * dead letter table once they failed too often or permanently. If the handler throws or the node crashes before the
+     * commit, the entries are relayed again, so observers may see an entry more than once.
+     */
+    public Relayed relay(int limit, int maxAttempts, Function<List<Entry>, Map<Long, Failure>> handler) {
+        return Optional.ofNullable(transactionTemplate.execute(_ -> {
+            var entries = ctx.selectFrom(CHANGE_OUTBOX)
+                    .orderBy(CHANGE_OUTBOX.ID.asc())
+                    .limit(limit)
+                    .forUpdate()
+                    .skipLocked()
+                    .fetch(rec -> new Entry(
+                            rec.getId(),
+                            Event.valueOf(rec.getEvent()),
+                            rec.getEntityId(),
+                            rec.getPayload(),
+                            rec.getCreatedAt(),
+                            rec.getAttempts(),
+                            rec.getPendingObservers() == null ? null : Set.of(rec.getPendingObservers())
+                    ));
+
+            if (entries.isEmpty())
+                return Relayed.NOTHING;
+
+            var failures = handler.apply(entries);
+
+            var removed = new ArrayList<Long>();
+            var parked = new ArrayList<Entry>();
+
+            for (var entry : entries) {
+                var failure = failures.get(entry.id());
+
+                if (failure == null) {
+                    removed.add(entry.id());
+                } else if (failure.permanent() || entry.attempts() + 1 >= maxAttempts) {
+                    park(entry, failure);
+                    removed.add(entry.id());
+                    parked.add(entry);
+                } else {
+                    ctx.update(CHANGE_OUTBOX)
+                            .set(CHANGE_OUTBOX.ATTEMPTS, CHANGE_OUTBOX.ATTEMPTS.plus(1))
+                            .set(CHANGE_OUTBOX.PENDING_OBSERVERS, failure.observers().toArray(String[]::new))
+                            .where(CHANGE_OUTBOX.ID.eq(entry.id()))
+                            .execute();
+                }
+            }
+
+            ctx.deleteFrom(CHANGE_OUTBOX)
+                    .where(CHANGE_OUTBOX.ID.in(removed))
+                    .execute();
+
+            return new Relayed(entries.size(), removed.size(), parked);
+        })).orElse(Relayed.NOTHING);
+    }
+
+    private void park(Entry entry, Failure failure) {
+        ctx.insertInto(CHANGE_OUTBOX_DEAD_LETTER)
+                .set(CHANGE_OUTBOX_DEAD_LETTER.ID, entry.id())
+                .set(CHANGE_OUTBOX_DEAD_LETTER.EVENT, entry.event().name())
+                .set(CHANGE_OUTBOX_DEAD_LETTER.ENTITY_ID, entry.entityId())
+                .set(CHANGE_OUTBOX_DEAD_LETTER.PAYLOAD, entry.payload())
+                .set(CHANGE_OUTBOX_DEAD_LETTER.CREATED_AT, entry.createdAt())
+                .set(CHANGE_OUTBOX_DEAD_LETTER.ATTEMPTS, entry.attempts() + 1)
+                .set(CHANGE_OUTBOX_DEAD_LETTER.FAILED_OBSERVERS, failure.observers().toArray(String[]::new))
+                .execute();
+    }
+
+    public <T> T readPayload(Entry entry, Class<T> type) {
+        try {
+            return objectMapper.readValue(entry.payload().data(), type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String serialize(Object payload) {
+        try {
+            return objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public enum Event {
+        ORDER_CREATED,
+        ORDER_INFO_UPDATED,
+        ORDER_POSITION_CREATED,
+        ORDER_POSITION_UPDATED,
+        ORDER_POSITION_DELETED,
+        ORDER_LOCKED,
+        ORDER_REOPENED,
+        ORDER_ORDERED,
+        ORDER_DELIVERED,
+        ORDER_REVOKED,
+        ORDER_ARCHIVED,
+        ORDER_DELETED,
+
+        RESTAURANT_CREATED,
+        RESTAURANT_UPDATED,
+        RESTAURANT_DELETED
+    }
+
+    /**
+     * @param pendingObservers the observers that still have to process the entry, {@code null} for all of them
+     */
+    public record Entry(long id, Event event, UUID entityId, JSONB payload, OffsetDateTime createdAt, int attempts, Set<String> pendingObservers) {
+    }
+
+    /**
+     * @param permanent whether relaying the entry again can not succeed, it is parked right away
+     */
+    public record Failure(Set<String> observers, boolean permanent) {
+    }
+
+    public record Relayed(int selected, int removed, List<Entry> parked) {
+        private static final Relayed NOTHING = new Relayed(0, 0, List.of());
+    }
+}
@@ -0,0 +1,338 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.sky.meal.ordering.mealordering.config.WebsocketSessionConfiguration;
+import de.sky.meal.ordering.mealordering.observers.LocalMessageBroadcaster;
+import de.sky.meal.ordering.mealordering.observers.MessageBroadcaster;
+import de.sky.meal.ordering.mealordering.observers.RemoteChangeObserver;
+import generated.sky.meal.ordering.rest.model.ChangeEvent;
+import generated.sky.meal.ordering.rest.model.OrderDelta;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.postgresql.PGConnection;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Sends messages to the local clients right away and publishes them with {@code pg_notify},
+ * so every other node relays them to its own clients.
+ */
+@Slf4j
+@Service
+@Primary
+public class ClusterMessageBroadcaster implements MessageBroadcaster {
+
+    public static final String NOTIFICATION_CHANNEL = "websocket_messages";
+
+    // postgres rejects notification payloads of 8000 bytes and more
+    private static final int MAX_PAYLOAD_BYTES = 7900;
+    private static final int ENVELOPE_OVERHEAD_BYTES = 100;
+
+    private final WebsocketSessionConfiguration.ClusterConfig config;
+
+    private final List<LocalMessageBroadcaster> localBroadcasters;
+    private final List<RemoteChangeObserver> remoteChangeObservers;
+    private final DataSource dataSource;
+    private final TransactionTemplate transactionTemplate;
+    private final DSLContext ctx;
+    private final ObjectMapper mapper;
+    private final MeterRegistry meterRegistry;
+
+    private final UUID nodeId = UUID.randomUUID();
+    private final BlockingQueue<Message> outgoing;
+    private final Timer propagation;
+
+    private volatile boolean running = true;
+    private Thread publisher;
+    private Thread listener;
+
+    public ClusterMessageBroadcaster(WebsocketSessionConfiguration config, List<LocalMessageBroadcaster> localBroadcasters,
+                                     List<RemoteChangeObserver> remoteChangeObservers, DataSource dataSource, TransactionTemplate transactionTemplate,
+                                     DSLContext ctx, ObjectMapper mapper, MeterRegistry meterRegistry) {
+        this.config = config.cluster();
+        this.localBroadcasters = localBroadcasters;
+        this.remoteChangeObservers = remoteChangeObservers;
+        this.dataSource = dataSource;
+        this.transactionTemplate = transactionTemplate;
+        this.ctx = ctx;
+        this.mapper = mapper;
+        this.meterRegistry = meterRegistry;
+
+        this.outgoing = new LinkedBlockingQueue<>(this.config.queueCapacity());
+        this.propagation = Timer.builder("cluster.message.propagation")
+                .description("Time from sending a message on one node until another node relayed it to its clients")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+
+        meterRegistry.gaugeCollectionSize("cluster.message.queue.depth", Tags.empty(), outgoing);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!config.enabled())
+            return;
+
+        log.info("Relaying websocket messages between nodes as node {}", nodeId);
+
+        publisher = Thread.ofVirtual()
+                .name("cluster-message-publisher")
+                .start(this::publishBatches);
+        listener = Thread.ofPlatform()
+                .name("cluster-message-listener")
+                .daemon()
+                .start(this::listen);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+
+        for (var thread : new Thread[]{publisher, listener}) {
+            if (thread == null)
+                continue;
+
+            thread.interrupt();
+            thread.join(Duration.ofSeconds(5));
+        }
+    }
+
+    @Override
+    public void sendMessage(String message) {
+        localBroadcasters.forEach(local -> local.sendMessage(message));
+        enqueue(new Message(message, null, System.currentTimeMillis()));
+    }
+
+    @Override
+    public void sendMessage(String message, Set<String> topics) {
+        localBroadcasters.forEach(local -> local.sendMessage(message, topics));
+        enqueue(new Message(message, topics, System.currentTimeMillis()));
+    }
+
+    private void enqueue(Message message) {
+        if (!config.enabled())
+            return;
+
+        if (!outgoing.offer(message)) {
+            log.warn("Dropping websocket message for the other nodes, the queue is full");
+            meterRegistry.counter("cluster.message.dropped", Tags.of("reason", "overflow")).increment();
+        }
+    }
+
+    private void publishBatches() {
+        while (running) {
+            var batch = new ArrayList<Message>();
+
+            try {
+                batch.add(outgoing.take());
+
+                // waiting a little lets a burst go out with a few notifications instead of one each
+                var deadline = System.nanoTime() + config.batchWindow().toNanos();
+                while (batch.size() < config.maxBatchSize()) {
+                    var next = outgoing.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null)
+                        break;
+
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                if (batch.isEmpty())
+                    return;
+            }
+
+            try {
+                publish(batch);
+            } catch (Exception e) {
+                log.warn("Could not publish {} websocket messages to the other nodes", batch.size(), e);
+                meterRegistry.counter("cluster.message.dropped", Tags.of("reason", "failed")).increment(batch.size());
+            }
+        }
+    }
+
+    private void publish(List<Message> batch) throws Exception {
+        var envelope = new ArrayList<Message>();
+        var size = ENVELOPE_OVERHEAD_BYTES;
+
+        for (var original : batch) {
+            var message = original;
+            var messageSize = mapper.writeValueAsBytes(message).length + 1;
+
+            if (messageSize + ENVELOPE_OVERHEAD_BYTES > MAX_PAYLOAD_BYTES) {
+                message = reduce(original);
+                messageSize = message == null ? messageSize : mapper.writeValueAsBytes(message).length + 1;
+
+                if (message == null || messageSize + ENVELOPE_OVERHEAD_BYTES > MAX_PAYLOAD_BYTES) {
+                    log.warn("Websocket message of {} bytes is too large to be relayed to the other nodes", messageSize);
+                    meterRegistry.counter("cluster.message.dropped", Tags.of("reason", "oversized")).increment();
+                    continue;
+                }
+
+                meterRegistry.counter("cluster.message.reduced").increment();
+            }
+
+            if (size + messageSize > MAX_PAYLOAD_BYTES) {
+                publish(new Envelope(nodeId, envelope));
+                envelope = new ArrayList<>();
+                size = ENVELOPE_OVERHEAD_BYTES;
+            }
+
+            envelope.add(message);
+            size += messageSize;
+        }
+
+        if (!envelope.isEmpty())
+            publish(new Envelope(nodeId, envelope));
+    }
+
+    /**
+     * Strips the payload of an oversized change event, the other nodes relay only its subjects and their clients refetch them.
+     * Returns {@code null} for messages that are no change event.
+     */
+    private Message reduce(Message message) throws Exception {
+        ChangeEvent event;
+        try {
+            event = mapper.readValue(message.message(), ChangeEvent.class);
+        } catch (Exception e) {
+            return null;
+        }
+
+        var reduced = ChangeEvent.builder()
+                .eventType(event.getEventType())
+                .subjects(event.getSubjects())
+                .build();
+
+        if (event.getOrderDeltas() != null && !event.getOrderDeltas().isEmpty()) {
+            reduced.setOrderDeltas(event.getSubjects()
+                    .stream()
+                    .map(id -> OrderDelta.builder().id(id).refetch(true).build())
+                    .collect(Collectors.toCollection(ArrayList::new)));
+        }
+
+        return new Message(mapper.writeValueAsString(reduced), message.topics(), message.sentAt());
+    }
+
+    private void publish(Envelope envelope) throws Exception {
+        var payload = mapper.writeValueAsString(envelope);
+
+        // connections are not in autocommit mode and postgres only delivers notifications on commit
+        transactionTemplate.executeWithoutResult(_ -> ctx.fetch("SELECT pg_notify(?, ?)", NOTIFICATION_CHANNEL, payload));
+
+        meterRegistry.counter("cluster.message.published").increment(envelope.messages().size());
+        meterRegistry.summary("cluster.message.batch.size").record(envelope.messages().size());
+        meterRegistry.summary("cluster.message.batch.bytes").record(payload.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    private void listen() {
+        while (running) {
+            try (var connection = dataSource.getConnection()) {
+                connection.setAutoCommit(true);
+
+                try (var statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + NOTIFICATION_CHANNEL);
+                }
+
+                var pgConnection = connection.unwrap(PGConnection.class);
+
+                while (running) {
+                    var notifications = pgConnection.getNotifications((int) config.pollInterval().toMillis());
+                    if (notifications == null)
+                        continue;
+
+                    for (var notification : notifications)
+                        receive(notification.getParameter());
+                }
+            } catch (SQLException e) {
+                log.warn("Listening for websocket messages of other nodes failed, retrying in {}", config.pollInterval(), e);
+                pause();
+            } catch (Exception e) {
+                log.error("Error while relaying websocket messages of other nodes", e);
+                pause();
+            }
+        }
+    }
+
+    private void receive(String payload) {
+        Envelope envelope;
+        try {
+            envelope = mapper.readValue(payload, Envelope.class);
+        } catch (Exception e) {
+            log.warn("Ignoring unreadable websocket message notification", e);
+            return;
+        }
+
+        // every node also receives its own notifications, its clients already got those messages
+        if (nodeId.equals(envelope.node())) {
+            meterRegistry.counter("cluster.message.received", Tags.of("origin", "self")).increment(envelope.messages().size());
+            return;
+        }
+
+        var now = System.currentTimeMillis();
+        for (var message : envelope.messages()) {
+            // caches have to drop what the other node changed before the clients here start refetching it
+            notifyRemoteChange(message.message());
+
+            for (var local : localBroadcasters) {
+                if (message.topics() == null)
+                    local.sendMessage(message.message());
+                else
+                    local.sendMessage(message.message(), message.topics());
+            }
+
+            // clocks of the nodes are assumed to be in sync, skew shows up in here
+            propagation.record(Math.max(0, now - message.sentAt()), TimeUnit.MILLISECONDS);
+        }
+
+        meterRegistry.counter("cluster.message.received", Tags.of("origin", "remote")).increment(envelope.messages().size());
+    }
+
+    private void notifyRemoteChange(String message) {
+        ChangeEvent event;
+        try {
+            event = mapper.readValue(message, ChangeEvent.class);
+        } catch (Exception e) {
+            log.debug("Relayed websocket message is no change event", e);
+            return;
+        }
+
+        for (var observer : remoteChangeObservers) {
+            try {
+                observer.onRemoteChange(event);
+            } catch (Exception e) {
+                log.warn("Could not apply change event of another node to {}", observer.getClass().getSimpleName(), e);
+            }
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(config.pollInterval());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    record Envelope(UUID node, List<Message> messages) {
+    }
+
+    record Message(String message, Set<String> topics, long sentAt) {
+    }
+}
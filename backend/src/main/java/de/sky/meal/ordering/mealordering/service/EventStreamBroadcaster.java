@@ -0,0 +1,213 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import de.sky.meal.ordering.mealordering.config.EventStreamConfiguration;
+import de.sky.meal.ordering.mealordering.observers.LocalMessageBroadcaster;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-Sent Events next to the websocket: every message gets an id {@code <epoch>-<sequence>}, so a reconnecting client
+ * that sends {@code Last-Event-ID} only receives what it missed. If that is no longer buffered, or the id stems from another
+ * node or an earlier run, the client gets a {@code reload} event and has to refetch everything.
+ */
+@Slf4j
+@Service
+public class EventStreamBroadcaster implements LocalMessageBroadcaster {
+
+    public static final String RELOAD_EVENT = "reload";
+
+    private final EventStreamConfiguration config;
+    private final MeterRegistry meterRegistry;
+
+    private final String epoch = UUID.randomUUID().toString().substring(0, 8);
+    private final ChangeEventLog history;
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+
+    public EventStreamBroadcaster(EventStreamConfiguration config, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.meterRegistry = meterRegistry;
+        this.history = new ChangeEventLog(config.bufferSize());
+
+        meterRegistry.gaugeCollectionSize("event-stream.clients", Tags.empty(), clients);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        List.copyOf(clients).forEach(Client::close);
+    }
+
+    public Optional<SseEmitter> connect(String lastEventId, Set<String> topics) {
+        if (clients.size() >= config.maxClients()) {
+            log.warn("Denying new event stream client due to overload");
+            meterRegistry.counter("event-stream.connect", Tags.of("result", "rejected")).increment();
+            return Optional.empty();
+        }
+
+        var emitter = new SseEmitter(config.timeout().toMillis());
+        Client client;
+
+        // registering under the lock keeps the replay and the live messages in order
+        synchronized (history) {
+            var missed = parseSequence(lastEventId).flatMap(history::after);
+
+            String result;
+            if (lastEventId == null)
+                result = "new";
+            else if (missed.isPresent())
+                result = "resumed";
+            else
+                result = RELOAD_EVENT;
+
+            var replay = missed.orElseGet(List::of)
+                    .stream()
+                    .filter(entry -> entry.isFor(topics))
+                    .toList();
+
+            client = new Client(emitter, topics, replay, missed.isEmpty() && lastEventId != null);
+            clients.add(client);
+
+            meterRegistry.counter("event-stream.connect", Tags.of("result", result)).increment();
+            meterRegistry.summary("event-stream.replayed").record(replay.size());
+        }
+
+        emitter.onCompletion(client::close);
+        emitter.onTimeout(client::close);
+        emitter.onError(_ -> client.close());
+
+        client.start();
+
+        return Optional.of(emitter);
+    }
+
+    @Override
+    public void sendMessage(String message) {
+        append(message, null);
+    }
+
+    @Override
+    public void sendMessage(String message, Set<String> topics) {
+        append(message, topics);
+    }
+
+    private void append(String message, Set<String> topics) {
+        synchronized (history) {
+            var entry = history.append(message, topics);
+
+            for (var client : clients) {
+                if (entry.isFor(client.topics))
+                    client.offer(entry);
+            }
+        }
+    }
+
+    private Optional<Long> parseSequence(String lastEventId) {
+        if (lastEventId == null || !lastEventId.startsWith(epoch + "-"))
+            return Optional.empty();
+
+        try {
+            return Optional.of(Long.parseLong(lastEventId.substring(epoch.length() + 1)));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    private final class Client {
+
+        private final SseEmitter emitter;
+        private final Set<String> topics;
+        private final List<ChangeEventLog.Entry> replay;
+        private final boolean reload;
+        private final BlockingQueue<ChangeEventLog.Entry> queue;
+
+        private volatile boolean closed = false;
+        private volatile Thread writer;
+
+        Client(SseEmitter emitter, Set<String> topics, List<ChangeEventLog.Entry> replay, boolean reload) {
+            this.emitter = emitter;
+            this.topics = topics;
+            this.replay = replay;
+            this.reload = reload;
+            this.queue = new ArrayBlockingQueue<>(config.queueCapacity());
+        }
+
+        void start() {
+            writer = Thread.ofVirtual()
+                    .name("event-stream-client")
+                    .start(this::write);
+        }
+
+        void offer(ChangeEventLog.Entry entry) {
+            if (closed || queue.offer(entry))
+                return;
+
+            // cheap to recover from, the client reconnects and gets the missed entries from the buffer
+            log.warn("Disconnecting slow event stream client");
+            meterRegistry.counter("event-stream.client.disconnected", Tags.of("reason", "overflow")).increment();
+            close();
+        }
+
+        /**
+         * Only marks the client closed, it is called while broadcasting. The writer removes it and completes the emitter,
+         * which waits for a send that is stuck on a stalled connection.
+         */
+        void close() {
+            closed = true;
+
+            var thread = writer;
+            if (thread != null)
+                thread.interrupt();
+        }
+
+        private void write() {
+            try {
+                emitter.send(SseEmitter.event()
+                        .reconnectTime(config.reconnectDelay().toMillis())
+                        .comment("connected"));
+
+                if (reload)
+                    emitter.send(SseEmitter.event().name(RELOAD_EVENT).data(RELOAD_EVENT));
+
+                for (var entry : replay)
+                    send(entry);
+
+                while (!closed) {
+                    var entry = queue.poll(config.heartbeat().toMillis(), TimeUnit.MILLISECONDS);
+
+                    // keeps proxies from cutting an idle connection
+                    if (entry == null)
+                        emitter.send(SseEmitter.event().comment("heartbeat"));
+                    else
+                        send(entry);
+                }
+            } catch (InterruptedException e) {
+                log.debug("Event stream client was closed");
+            } catch (Exception e) {
+                log.debug("Event stream client went away", e);
+            } finally {
+                closed = true;
+                clients.remove(this);
+                emitter.complete();
+            }
+        }
+
+        private void send(ChangeEventLog.Entry entry) throws Exception {
+            emitter.send(SseEmitter.event()
+                    .id(epoch + "-" + entry.id())
+                    .data(entry.message(), MediaType.APPLICATION_JSON));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import de.sky.meal.ordering.mealordering.config.BlobStoreConfiguration;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+@Slf4j
+@Service
+public class FileSystemBlobStore implements BlobStore {
+
+    private static final Pattern HASH_PATTERN = Pattern.compile("^[0-9a-f]{64}$");
+
+    private final Path root;
+    private final Path incoming;
+
+    private final MeterRegistry meterRegistry;
+
+    public FileSystemBlobStore(BlobStoreConfiguration config, MeterRegistry meterRegistry) {
+        this.root = Objects.requireNonNull(config.directory()).toAbsolutePath();
+        this.incoming = root.resolve("incoming");
+        this.meterRegistry = meterRegistry;
+
+        try {
+            Files.createDirectories(incoming);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Blob store directory could not be created: " + root, e);
+        }
+
+        log.info("Using blob store in {}", root);
+    }
+
+    @Override
+    public StoredBlob store(InputStream content) {
+        Path tmp = null;
+
+        try {
+            tmp = Files.createTempFile(incoming, "blob-", ".tmp");
+
+            long size;
+            String hash;
+            try (var hashing = new HashingInputStream(Hashing.sha256(), content)) {
+                size = Files.copy(hashing, tmp, StandardCopyOption.REPLACE_EXISTING);
+                hash = hashing.hash().toString();
+            }
+
+            var target = pathOf(hash);
+
+            if (Files.exists(target)) {
+                meterRegistry.counter("blobstore.store", Tags.of("result", "deduplicated")).increment();
+                return new StoredBlob(hash, size);
+            }
+
+            Files.createDirectories(target.getParent());
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+
+            meterRegistry.counter("blobstore.store", Tags.of("result", "stored")).increment();
+            meterRegistry.counter("blobstore.store.bytes").increment(size);
+
+            return new StoredBlob(hash, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Blob could not be stored", e);
+        } finally {
+            deleteQuietly(tmp);
+        }
+    }
+
+    @Override
+    public Optional<Resource> load(String hash) {
+        if (hash == null || !HASH_PATTERN.matcher(hash).matches())
+            return Optional.empty();
+
+        var path = pathOf(hash);
+        if (!Files.isRegularFile(path))
+            return Optional.empty();
+
+        return Optional.of(new FileSystemResource(path));
+    }
+
+    private Path pathOf(String hash) {
+        return root.resolve(hash.substring(0, 2))
+                .resolve(hash.substring(2, 4))
+                .resolve(hash);
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null)
+            return;
+
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Temporary blob {} could not be deleted", path, e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import generated.sky.meal.ordering.schema.enums.OrderState;
+import lombok.RequiredArgsConstructor;
+import org.jooq.DSLContext;
+import org.jooq.Records;
+import org.jooq.impl.DSL;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import static generated.sky.meal.ordering.schema.Tables.HOUSEKEEPING_JOB;
+
+@Service
+@RequiredArgsConstructor
+public class HousekeepingJobQueue {
+
+    private static final Set<OrderState> SCHEDULED_STATES = Set.of(OrderState.LOCKED, OrderState.ORDERED, OrderState.DELIVERED, OrderState.REVOKED);
+    private static final Duration CLAIM_LEASE = Duration.ofMinutes(5);
+    private static final int MAX_ATTEMPTS = 10;
+
+    private final TransactionTemplate transactionTemplate;
+    private final DSLContext ctx;
+
+    public void schedule(UUID orderId, OrderState state, OffsetDateTime dueAt) {
+        if (dueAt == null || !SCHEDULED_STATES.contains(state)) {
+            ctx.deleteFrom(HOUSEKEEPING_JOB)
+                    .where(HOUSEKEEPING_JOB.ORDER_ID.eq(orderId))
+                    .execute();
+            return;
+        }
+
+        // the same job still being overdue is a retry, it keeps its attempts and the lease it waits out
+        var retry = dueAt.isAfter(OffsetDateTime.now())
+                ? DSL.falseCondition()
+                : HOUSEKEEPING_JOB.STATE.eq(state);
+
+        ctx.insertInto(HOUSEKEEPING_JOB)
+                .set(HOUSEKEEPING_JOB.ORDER_ID, orderId)
+                .set(HOUSEKEEPING_JOB.STATE, state)
+                .set(HOUSEKEEPING_JOB.DUE_AT, dueAt)
+                .onConflict(HOUSEKEEPING_JOB.ORDER_ID)
+                .doUpdate()
+                .set(HOUSEKEEPING_JOB.STATE, state)
+                .set(HOUSEKEEPING_JOB.DUE_AT, dueAt)
+                .set(HOUSEKEEPING_JOB.CLAIMED_BY, DSL.when(retry, HOUSEKEEPING_JOB.CLAIMED_BY).otherwise(DSL.inline(null, HOUSEKEEPING_JOB.CLAIMED_BY)))
+                .set(HOUSEKEEPING_JOB.CLAIMED_UNTIL, DSL.when(retry, HOUSEKEEPING_JOB.CLAIMED_UNTIL).otherwise(DSL.inline(null, HOUSEKEEPING_JOB.CLAIMED_UNTIL)))
+                .set(HOUSEKEEPING_JOB.ATTEMPTS, DSL.when(retry, HOUSEKEEPING_JOB.ATTEMPTS).otherwise(0))
+                .execute();
+    }
+
+    public List<Job> claimDue(int limit) {
+        var claimToken = UUID.randomUUID();
+        var now = OffsetDateTime.now();
+
+        return Optional.ofNullable(transactionTemplate.execute(_ ->
+                ctx.update(HOUSEKEEPING_JOB)
+                        .set(HOUSEKEEPING_JOB.CLAIMED_BY, claimToken)
+                        .set(HOUSEKEEPING_JOB.CLAIMED_UNTIL, now.plus(CLAIM_LEASE))
+                        .set(HOUSEKEEPING_JOB.ATTEMPTS, HOUSEKEEPING_JOB.ATTEMPTS.plus(1))
+                        .where(HOUSEKEEPING_JOB.ORDER_ID.in(
+                                DSL.select(HOUSEKEEPING_JOB.ORDER_ID)
+                                        .from(HOUSEKEEPING_JOB)
+                                        .where(HOUSEKEEPING_JOB.DUE_AT.lessThan(now))
+                                        .and(HOUSEKEEPING_JOB.ATTEMPTS.lessThan(MAX_ATTEMPTS))
+                                        .and(HOUSEKEEPING_JOB.CLAIMED_UNTIL.isNull().or(HOUSEKEEPING_JOB.CLAIMED_UNTIL.lessThan(now)))
+                                        .orderBy(HOUSEKEEPING_JOB.DUE_AT.asc())
+                                        .limit(limit)
+                                        .forUpdate()
+                                        .skipLocked()
+                        ))
+                        .returning(HOUSEKEEPING_JOB.ORDER_ID, HOUSEKEEPING_JOB.STATE, HOUSEKEEPING_JOB.ATTEMPTS)
+                        .fetch(Records.mapping(Job::new))
+        )).orElse(List.of());
+    }
+
+    /**
+     * Removes the jobs that used up their attempts once their last lease ran out.
+     * Their orders are left to the global housekeeping, which still picks them up by their deadline.
+     */
+    public List<Job> abandonExhausted() {
+        var now = OffsetDateTime.now();
+
+        return Optional.ofNullable(transactionTemplate.execute(_ ->
+                ctx.deleteFrom(HOUSEKEEPING_JOB)
+                        .where(HOUSEKEEPING_JOB.ATTEMPTS.greaterOrEqual(MAX_ATTEMPTS))
+                        .and(HOUSEKEEPING_JOB.CLAIMED_UNTIL.isNull().or(HOUSEKEEPING_JOB.CLAIMED_UNTIL.lessThan(now)))
+                        .returning(HOUSEKEEPING_JOB.ORDER_ID, HOUSEKEEPING_JOB.STATE, HOUSEKEEPING_JOB.ATTEMPTS)
+                        .fetch(Records.mapping(Job::new))
+        )).orElse(List.of());
+    }
+
+    public record Job(UUID orderId, OrderState state, int attempts) {
+    }
+}
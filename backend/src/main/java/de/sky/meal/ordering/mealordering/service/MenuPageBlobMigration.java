@@ -0,0 +1,84 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import com.google.common.base.Stopwatch;
+import de.sky.meal.ordering.mealordering.config.BlobStoreConfiguration;
+import generated.sky.meal.ordering.schema.Tables;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.util.Optional;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MenuPageBlobMigration implements ApplicationRunner {
+
+    private static final int BATCH_SIZE = 10;
+
+    private final BlobStoreConfiguration config;
+
+    private final TransactionTemplate transactionTemplate;
+    private final DSLContext ctx;
+
+    private final BlobStore blobStore;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!config.migrateOnStartup()) {
+            log.debug("Migration of menu pages into blob store is disabled");
+            return;
+        }
+
+        migrateLegacyMenuPages();
+    }
+
+    public int migrateLegacyMenuPages() {
+        log.info("Migrating menu pages from database into blob store ...");
+
+        var sw = Stopwatch.createStarted();
+
+        int migrated = 0;
+        int batch;
+        do {
+            batch = Optional.ofNullable(transactionTemplate.execute(_ -> migrateBatch()))
+                    .orElse(0);
+            migrated += batch;
+        } while (batch > 0);
+
+        log.info("Migrated {} menu pages into blob store in {}", migrated, sw.stop());
+
+        return migrated;
+    }
+
+    private int migrateBatch() {
+        var pages = ctx.select(Tables.MENU_PAGE.ID, Tables.MENU_PAGE.IMAGE_DATA, Tables.MENU_PAGE.IMAGE_DATA_HASH)
+                .from(Tables.MENU_PAGE)
+                .where(Tables.MENU_PAGE.IMAGE_DATA.isNotNull())
+                .limit(BATCH_SIZE)
+                .forUpdate()
+                .skipLocked()
+                .fetch();
+
+        for (var page : pages) {
+            var blob = blobStore.store(new ByteArrayInputStream(page.value2()));
+
+            if (!blob.hash().equals(page.value3()))
+                log.warn("MenuPage {} had stale hash {}, stored as {}", page.value1(), page.value3(), blob.hash());
+
+            ctx.update(Tables.MENU_PAGE)
+                    .set(Tables.MENU_PAGE.IMAGE_DATA, (byte[]) null)
+                    .set(Tables.MENU_PAGE.IMAGE_DATA_HASH, blob.hash())
+                    .set(Tables.MENU_PAGE.IMAGE_DATA_SIZE, blob.size())
+                    .where(Tables.MENU_PAGE.ID.eq(page.value1()))
+                    .execute();
+        }
+
+        return pages.size();
+    }
+}
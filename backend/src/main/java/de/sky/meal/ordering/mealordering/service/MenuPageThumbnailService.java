@@ -0,0 +1,227 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import de.sky.meal.ordering.mealordering.model.DatabaseFile;
+import de.sky.meal.ordering.mealordering.model.MenuPageMetadata;
+import de.sky.meal.ordering.mealordering.observers.RestaurantChangeObserver;
+import generated.sky.meal.ordering.rest.model.Restaurant;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Slf4j
+@Service
+public class MenuPageThumbnailService implements RestaurantChangeObserver {
+
+    private static final int THUMBNAIL_MAX_EDGE = 480;
+    private static final long MAX_CACHED_THUMBNAIL_BYTES = 32 * 1024 * 1024; // 32MB
+    private static final int GENERATOR_THREADS = 2;
+    private static final Duration RETRY_BACKOFF = Duration.ofMinutes(1);
+    private static final Duration MAX_RETRY_BACKOFF = Duration.ofDays(1);
+
+    private final RestaurantRepository restaurantRepository;
+    private final MeterRegistry meterRegistry;
+
+    private final ExecutorService generator = Executors.newFixedThreadPool(GENERATOR_THREADS, Thread.ofPlatform().name("thumbnail-", 0).daemon().factory());
+    private final Set<UUID> pendingRestaurants = ConcurrentHashMap.newKeySet();
+
+    private final Cache<PageKey, CachedThumbnail> hotThumbnails = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_CACHED_THUMBNAIL_BYTES)
+            .<PageKey, CachedThumbnail>weigher((_, thumbnail) -> thumbnail.data().length)
+            .recordStats()
+            .build();
+
+    public MenuPageThumbnailService(RestaurantRepository restaurantRepository, MeterRegistry meterRegistry) {
+        this.restaurantRepository = restaurantRepository;
+        this.meterRegistry = meterRegistry;
+
+        GuavaCacheMetrics.monitor(meterRegistry, hotThumbnails, "restaurant.menupage.thumbnail.cache", Tags.of("entity", "restaurant"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        generator.shutdownNow();
+    }
+
+    public Optional<DatabaseFile> readThumbnail(UUID restaurantId, UUID pageId) {
+        var key = new PageKey(restaurantId, pageId);
+
+        var cached = hotThumbnails.getIfPresent(key);
+        if (cached != null)
+            return Optional.of(cached.toFile());
+
+        var stored = restaurantRepository.readMenuPageThumbnail(restaurantId, pageId);
+        if (stored.isEmpty()) {
+            scheduleGeneration(restaurantId);
+            return Optional.empty();
+        }
+
+        try (var in = stored.get().content().getInputStream()) {
+            var thumbnail = new CachedThumbnail(stored.get().name(), stored.get().contentType(), in.readAllBytes());
+            hotThumbnails.put(key, thumbnail);
+            return Optional.of(thumbnail.toFile());
+        } catch (IOException e) {
+            log.warn("Thumbnail of MenuPage {} could not be read", pageId, e);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void onRestaurantUpdate(Restaurant restaurant) {
+        hotThumbnails.asMap().keySet().removeIf(key -> key.restaurantId().equals(restaurant.getId()));
+
+        scheduleGeneration(restaurant.getId());
+    }
+
+    @Override
+    public void onBeforeDeleteRestaurant(UUID id) {
+        hotThumbnails.asMap().keySet().removeIf(key -> key.restaurantId().equals(id));
+    }
+
+    private void scheduleGeneration(UUID restaurantId) {
+        if (!pendingRestaurants.add(restaurantId))
+            return;
+
+        generator.execute(() -> {
+            try {
+                pendingRestaurants.remove(restaurantId);
+
+                restaurantRepository.readMenuPagesWithoutThumbnail(restaurantId)
+                        .forEach(this::generateThumbnail);
+            } catch (Exception e) {
+                log.error("Thumbnails for Restaurant {} could not be generated", restaurantId, e);
+            }
+        });
+    }
+
+    private void generateThumbnail(MenuPageMetadata page) {
+        var sample = Timer.start(meterRegistry);
+        var result = "failed";
+
+        try {
+            var image = decode(restaurantRepository.readMenuPage(page.restaurantId(), page.id()));
+
+            if (image == null) {
+                result = "unsupported";
+                log.info("No thumbnail for MenuPage {} with unsupported media type {}, the original is served instead", page.id(), page.mediaType());
+                restaurantRepository.markMenuPageThumbnailUnsupported(page.id());
+                return;
+            }
+
+            var data = scale(image);
+
+            restaurantRepository.setMenuPageThumbnail(page.id(), new DatabaseFile(
+                    "thumbnail-" + page.name(),
+                    MediaType.IMAGE_JPEG,
+                    data.length,
+                    new ByteArrayResource(data)
+            ));
+
+            result = "generated";
+            log.debug("Generated thumbnail of {} bytes for MenuPage {}", data.length, page.id());
+        } catch (Exception e) {
+            log.warn("Thumbnail for MenuPage {} could not be generated", page.id(), e);
+            markFailed(page);
+        } finally {
+            sample.stop(meterRegistry.timer("restaurant.menupage.thumbnail.generation", Tags.of("entity", "restaurant", "result", result)));
+        }
+    }
+
+    private void markFailed(MenuPageMetadata page) {
+        try {
+            restaurantRepository.markMenuPageThumbnailFailed(page.id(), MenuPageThumbnailService::retryBackoff);
+        } catch (Exception e) {
+            log.warn("Failed thumbnail generation for MenuPage {} could not be recorded", page.id(), e);
+        }
+    }
+
+    private static Duration retryBackoff(int failures) {
+        var factor = 1L << Math.min(failures - 1, 20);
+        var backoff = RETRY_BACKOFF.multipliedBy(factor);
+
+        return backoff.compareTo(MAX_RETRY_BACKOFF) > 0 ? MAX_RETRY_BACKOFF : backoff;
+    }
+
+    /**
+     * Decodes only every n-th pixel of large images, so the image in memory is not much larger than the thumbnail.
+     * Returns {@code null} if there is no reader for the format.
+     */
+    private static BufferedImage decode(DatabaseFile original) throws IOException {
+        try (var raw = original.content().getInputStream();
+             var in = ImageIO.createImageInputStream(raw)) {
+            if (in == null)
+                return null;
+
+            var readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext())
+                return null;
+
+            var reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+
+                var step = Math.max(1, Math.max(reader.getWidth(0), reader.getHeight(0)) / THUMBNAIL_MAX_EDGE);
+
+                var param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static byte[] scale(BufferedImage image) throws IOException {
+        var factor = Math.min(1.0, (double) THUMBNAIL_MAX_EDGE / Math.max(image.getWidth(), image.getHeight()));
+        var width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        var height = Math.max(1, (int) Math.round(image.getHeight() * factor));
+
+        var scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+        var g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, Color.WHITE, null);
+        } finally {
+            g.dispose();
+        }
+
+        var out = new ByteArrayOutputStream();
+        if (!ImageIO.write(scaled, "jpeg", out))
+            throw new IOException("No JPEG writer available");
+
+        return out.toByteArray();
+    }
+
+    private record PageKey(UUID restaurantId, UUID pageId) {
+    }
+
+    private record CachedThumbnail(String name, MediaType contentType, byte[] data) {
+        DatabaseFile toFile() {
+            return new DatabaseFile(name, contentType, data.length, new ByteArrayResource(data));
+        }
+    }
+}
@@ -4,6 +4,7 @@ import de.sky.meal.ordering.mealordering.config.DefaultUser;
 import de.sky.meal.ordering.mealordering.config.OrderConfiguration;
 import de.sky.meal.ordering.mealordering.model.exceptions.*;
 import generated.sky.meal.ordering.rest.model.Order;
+import generated.sky.meal.ordering.rest.model.OrderChanges;
 import generated.sky.meal.ordering.rest.model.OrderInfos;
 import generated.sky.meal.ordering.rest.model.OrderInfosPatch;
 import generated.sky.meal.ordering.rest.model.OrderMoneyCollectionType;
@@ -16,50 +17,228 @@ import generated.sky.meal.ordering.schema.enums.MoneyCollectionType;
 import generated.sky.meal.ordering.schema.enums.OrderState;
 import generated.sky.meal.ordering.schema.tables.records.MealOrderRecord;
 import generated.sky.meal.ordering.schema.tables.records.OrderPositionRecord;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import org.apache.commons.lang3.compare.ComparableUtils;
 import org.jooq.Condition;
 import org.jooq.DSLContext;
+import org.jooq.Field;
 import org.jooq.Record1;
+import org.jooq.SelectFieldOrAsterisk;
+import org.jooq.TableField;
+import org.jooq.UpdateSetMoreStep;
 import org.jooq.impl.DSL;
+import org.jooq.impl.SQLDataType;
+import org.jooq.types.DayToSecond;
 import org.jooq.tools.StringUtils;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
-import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 @Service
 @RequiredArgsConstructor
 public class OrderRepository {
 
+    private static final int BULK_CHUNK_SIZE = 100;
+
+    // every transaction with an id below it has finished, see V0024__OrderChangeSequence.sql
+    private static final Field<Long> SNAPSHOT_XMIN = DSL.field("PG_SNAPSHOT_XMIN(PG_CURRENT_SNAPSHOT())::TEXT::BIGINT", Long.class);
+
+    // read while the order row is locked, so changes of an order are stamped in the order they are applied
+    private static final Field<OffsetDateTime> CHANGED_AT = DSL.field("CLOCK_TIMESTAMP()", SQLDataType.TIMESTAMPWITHTIMEZONE);
+
     private final OrderConfiguration config;
 
     private final TransactionTemplate transactionTemplate;
     private final DSLContext ctx;
 
+    private final ActiveOrderProjection projection;
+    private final RestaurantReportRollup reportRollup;
+    private final HousekeepingJobQueue jobQueue;
+    private final ChangeOutbox outbox;
+    private final MeterRegistry meterRegistry;
+
     public Order readOrder(UUID id) {
-        return transactionTemplate.execute(_ -> fetchOrder(id));
+        return projection.get(id)
+                .orElseGet(() -> transactionTemplate.execute(_ -> fetchOrder(id)));
+    }
+
+    public UUID readOrderVersion(UUID id) {
+        return projection.get(id)
+                .map(Order::getVersion)
+                .orElseGet(() -> transactionTemplate.execute(_ ->
+                        ctx.select(Tables.MEAL_ORDER.VERSION)
+                                .from(Tables.MEAL_ORDER)
+                                .where(Tables.MEAL_ORDER.ID.eq(id))
+                                .fetchOptional(Tables.MEAL_ORDER.VERSION)
+                                .orElseThrow(() -> new RecordNotFoundException("Order", id))
+                ));
     }
 
     public List<Order> readOrders() {
-        return transactionTemplate.execute(_ -> fetchOrders(
-                DSL.or(
-                        Tables.MEAL_ORDER.STATE.notIn(OrderState.ARCHIVED, OrderState.REVOKED),
-                        Tables.MEAL_ORDER.REVOKED_AT.ge(OffsetDateTime.now().minus(config.closedOrderLingering())),
-                        Tables.MEAL_ORDER.ARCHIVED_AT.ge(OffsetDateTime.now().minus(config.closedOrderLingering()))
-                )
-        ));
+        return projection.getAll()
+                .orElseGet(() -> {
+                    var loadStartedAt = projection.startLoading();
+                    var orders = transactionTemplate.execute(_ -> fetchOrders(activeOrdersCondition()));
+                    projection.initialize(orders, loadStartedAt);
+                    return orders;
+                });
+    }
+
+    @Scheduled(fixedDelayString = "${app.config.orders.projection-reconciliation-interval}")
+    public void reconcileActiveOrders() {
+        if (!projection.isInitialized())
+            return;
+
+        var cached = projection.versions();
+
+        var actual = transactionTemplate.execute(_ ->
+                ctx.select(Tables.MEAL_ORDER.ID, Tables.MEAL_ORDER.VERSION)
+                        .from(Tables.MEAL_ORDER)
+                        .where(activeOrdersCondition())
+                        .fetchMap(Tables.MEAL_ORDER.ID, Tables.MEAL_ORDER.VERSION)
+        );
+
+        var outdated = actual.entrySet()
+                .stream()
+                .filter(e -> !e.getValue().equals(cached.get(e.getKey())))
+                .map(Map.Entry::getKey)
+                .toList();
+
+        var vanished = cached.keySet()
+                .stream()
+                .filter(id -> !actual.containsKey(id))
+                .toList();
+
+        var reloaded = outdated.isEmpty()
+                ? List.<Order>of()
+                : transactionTemplate.execute(_ -> fetchOrders(Tables.MEAL_ORDER.ID.in(outdated)));
+
+        projection.reconcile(reloaded, vanished);
+    }
+
+    /**
+     * Reloads orders that were changed on another node, those that are gone are dropped from the projection.
+     */
+    public void refreshActiveOrders(Collection<UUID> ids) {
+        if (ids.isEmpty())
+            return;
+
+        var reloaded = transactionTemplate.execute(_ -> fetchOrders(Tables.MEAL_ORDER.ID.in(ids)));
+        var found = reloaded.stream()
+                .map(Order::getId)
+                .collect(Collectors.toSet());
+
+        reloaded.forEach(projection::update);
+        ids.stream()
+                .filter(id -> !found.contains(id))
+                .forEach(projection::remove);
+    }
+
+    /**
+     * Tokens are {@code <snapshot xmin>-<epoch millis>}, the time catches closed orders that left the active set
+     * without being written to. Changes can be returned twice, but none is missed.
+     */
+    public OrderChanges readOrderChanges(String since) {
+        var previous = ChangeToken.parse(since);
+        var now = OffsetDateTime.now();
+
+        return transactionTemplate.execute(_ -> {
+            // taken before reading, so everything written below it is visible to the queries that follow
+            var token = new ChangeToken(ctx.select(SNAPSHOT_XMIN).fetchSingle(SNAPSHOT_XMIN), now);
+
+            var horizon = ctx.select(Tables.ORDER_CHANGE_HORIZON.PRUNED_BEFORE)
+                    .from(Tables.ORDER_CHANGE_HORIZON)
+                    .fetchSingle(Tables.ORDER_CHANGE_HORIZON.PRUNED_BEFORE);
+
+            if (previous.isEmpty() || previous.get().seq() < horizon) {
+                return OrderChanges.builder()
+                        .token(token.format())
+                        .full(true)
+                        .orders(fetchOrders(activeOrdersCondition(now)))
+                        .deletedOrders(new ArrayList<>())
+                        .build();
+            }
+
+            var seq = previous.get().seq();
+            var changed = DSL.or(
+                    Tables.MEAL_ORDER.CHANGE_SEQ.ge(seq),
+                    DSL.exists(
+                            DSL.selectOne()
+                                    .from(Tables.ORDER_POSITION)
+                                    .where(Tables.ORDER_POSITION.ORDER_ID.eq(Tables.MEAL_ORDER.ID))
+                                    .and(Tables.ORDER_POSITION.CHANGE_SEQ.ge(seq))
+                    )
+            );
+
+            var lingeringSince = previous.get().at().minus(config.closedOrderLingering());
+            var closedSince = DSL.or(
+                    Tables.MEAL_ORDER.REVOKED_AT.ge(lingeringSince),
+                    Tables.MEAL_ORDER.ARCHIVED_AT.ge(lingeringSince)
+            );
+
+            var deleted = new LinkedHashSet<UUID>(
+                    ctx.select(Tables.ORDER_TOMBSTONE.ORDER_ID)
+                            .from(Tables.ORDER_TOMBSTONE)
+                            .where(Tables.ORDER_TOMBSTONE.CHANGE_SEQ.ge(seq))
+                            .fetch(Tables.ORDER_TOMBSTONE.ORDER_ID)
+            );
+            deleted.addAll(
+                    ctx.select(Tables.MEAL_ORDER.ID)
+                            .from(Tables.MEAL_ORDER)
+                            .where(changed.or(closedSince))
+                            .and(inactiveOrdersCondition(now))
+                            .fetch(Tables.MEAL_ORDER.ID)
+            );
+
+            return OrderChanges.builder()
+                    .token(token.format())
+                    .full(false)
+                    .orders(fetchOrders(changed.and(activeOrdersCondition(now))))
+                    .deletedOrders(new ArrayList<>(deleted))
+                    .build();
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${app.config.orders.tombstone-pruning-interval}")
+    public void pruneTombstones() {
+        transactionTemplate.executeWithoutResult(_ -> {
+            var pruned = ctx.deleteFrom(Tables.ORDER_TOMBSTONE)
+                    .where(Tables.ORDER_TOMBSTONE.DELETED_AT.lt(OffsetDateTime.now().minus(config.tombstoneRetention())))
+                    .returning(Tables.ORDER_TOMBSTONE.CHANGE_SEQ)
+                    .fetch(Tables.ORDER_TOMBSTONE.CHANGE_SEQ);
+
+            if (pruned.isEmpty())
+                return;
+
+            // a token that did not see these deletions yet can only be answered with everything
+            ctx.update(Tables.ORDER_CHANGE_HORIZON)
+                    .set(Tables.ORDER_CHANGE_HORIZON.PRUNED_BEFORE, DSL.greatest(Tables.ORDER_CHANGE_HORIZON.PRUNED_BEFORE, DSL.val(Collections.max(pruned) + 1)))
+                    .execute();
+        });
     }
 
     public List<UUID> readOrderableRestaurantIds(LocalDate date) {
@@ -77,7 +256,7 @@ public class OrderRepository {
     }
 
     public Order createNewEmptyOrder(LocalDate date, UUID restaurantId) {
-        return transactionTemplate.execute(_ -> {
+        var order = transactionTemplate.execute(_ -> {
             var restaurantRec = ctx.fetchOptional(Tables.RESTAURANT, Tables.RESTAURANT.ID.eq(restaurantId))
                     .orElseThrow(() -> new RecordNotFoundException("Restaurant", restaurantId));
 
@@ -106,10 +285,18 @@ public class OrderRepository {
                     .setTargetDate(date)
                     .setOrderFee(restaurantRec.getDefaultOrderFee());
 
+            updateNextTransition(rec);
+
             rec.insert();
 
-            return fetchOrder(id);
+            var result = fetchOrder(id);
+            outbox.append(ChangeOutbox.Event.ORDER_CREATED, id, result);
+            return result;
         });
+
+        projection.update(order);
+
+        return order;
     }
 
     public Order updateOrderInfos(UUID id, UUID etag, OrderInfosPatch infos) {
@@ -122,7 +309,7 @@ public class OrderRepository {
         if (infos.getOrderFee() != null && infos.getOrderFee() < 0)
             throw new NegativeFeeException("Negative Order Fee is not allowed", infos.getOrderFee());
 
-        return changeOrderRecord(id, etag, (_, rec) -> {
+        return changeOrderRecord(id, etag, ChangeOutbox.Event.ORDER_INFO_UPDATED, (_, rec) -> {
             var requiredStates = Set.of(OrderState.OPEN, OrderState.NEW);
             if (!requiredStates.contains(rec.getState()))
                 throw new WrongOrderStateException(id, rec.getState(), requiredStates);
@@ -149,9 +336,177 @@ public class OrderRepository {
         });
     }
 
-    public void deleteOrderWithoutCondition(UUID id) {
-        deleteOrder(id, null, _ -> {
+    public List<UUID> reopenLockedOrders(Condition due) {
+        return transitionInChunks(OrderState.LOCKED, OrderState.OPEN, due, update -> update
+                .setNull(Tables.MEAL_ORDER.LOCKED_AT)
+        );
+    }
+
+    public List<UUID> deliverOrderedOrders(Condition due) {
+        return transitionInChunks(OrderState.ORDERED, OrderState.DELIVERED, due, update -> update
+                .set(Tables.MEAL_ORDER.DELIVERED_AT, CHANGED_AT)
+        );
+    }
+
+    public List<UUID> archiveDeliveredOrders(Condition due) {
+        return transitionInChunks(OrderState.DELIVERED, OrderState.ARCHIVED, due, update -> update
+                .set(Tables.MEAL_ORDER.ARCHIVED_AT, CHANGED_AT)
+        );
+    }
+
+    public List<UUID> deleteOrders(Condition due) {
+        var deleted = new ArrayList<UUID>();
+
+        List<UUID> chunk;
+        do {
+            chunk = Optional.ofNullable(transactionTemplate.execute(_ -> {
+                var ids = ctx.select(Tables.MEAL_ORDER.ID)
+                        .from(Tables.MEAL_ORDER)
+                        .where(due)
+                        .orderBy(Tables.MEAL_ORDER.CREATED_AT.asc())
+                        .limit(BULK_CHUNK_SIZE)
+                        .forUpdate()
+                        .skipLocked()
+                        .fetch(Tables.MEAL_ORDER.ID);
+
+                if (ids.isEmpty())
+                    return List.<UUID>of();
+
+                reportRollup.removeOrders(ids);
+
+                ctx.deleteFrom(Tables.ORDER_POSITION)
+                        .where(Tables.ORDER_POSITION.ORDER_ID.in(ids))
+                        .execute();
+
+                return ctx.deleteFrom(Tables.MEAL_ORDER)
+                        .where(Tables.MEAL_ORDER.ID.in(ids))
+                        .returning(Tables.MEAL_ORDER.ID)
+                        .fetch(Tables.MEAL_ORDER.ID);
+            })).orElse(List.of());
+
+            chunk.forEach(projection::remove);
+            deleted.addAll(chunk);
+        } while (chunk.size() == BULK_CHUNK_SIZE);
+
+        return deleted;
+    }
+
+    public int recomputeNextTransitions() {
+        var changed = new ArrayList<UUID>();
+
+        transactionTemplate.executeWithoutResult(_ -> {
+            for (var state : OrderState.values()) {
+                var decision = Mapper.DurationDecider.fromState(config.stateTimeouts(), state);
+
+                var nextAt = decision.since() == null
+                        ? DSL.inline((OffsetDateTime) null, Tables.MEAL_ORDER.NEXT_TRANSITION_AT)
+                        : decision.since().plus(DayToSecond.valueOf(decision.duration()));
+                var nextState = DSL.inline(decision.target(), Tables.MEAL_ORDER.NEXT_TRANSITION_STATE);
+
+                changed.addAll(
+                        ctx.update(Tables.MEAL_ORDER)
+                                .set(Tables.MEAL_ORDER.NEXT_TRANSITION_AT, nextAt)
+                                .set(Tables.MEAL_ORDER.NEXT_TRANSITION_STATE, nextState)
+                                .where(Tables.MEAL_ORDER.STATE.eq(state))
+                                .and(Tables.MEAL_ORDER.NEXT_TRANSITION_AT.isDistinctFrom(nextAt).or(Tables.MEAL_ORDER.NEXT_TRANSITION_STATE.isDistinctFrom(nextState)))
+                                .returning(Tables.MEAL_ORDER.ID)
+                                .fetch(Tables.MEAL_ORDER.ID)
+                );
+            }
+        });
+
+        if (!changed.isEmpty())
+            rescheduleHousekeeping(changed);
+
+        return changed.size();
+    }
+
+    public void rescheduleHousekeeping(Collection<UUID> ids) {
+        var orders = transactionTemplate.execute(_ -> {
+            var result = fetchOrders(Tables.MEAL_ORDER.ID.in(ids));
+            result.forEach(this::scheduleHousekeeping);
+            return result;
         });
+
+        Optional.ofNullable(orders)
+                .orElse(List.of())
+                .forEach(projection::update);
+    }
+
+    private void updateNextTransition(MealOrderRecord rec) {
+        var decision = Mapper.DurationDecider.fromState(config.stateTimeouts(), rec.getState());
+
+        rec.setNextTransitionAt(decision.nextTimestamp(rec))
+                .setNextTransitionState(decision.target());
+    }
+
+    /**
+     * The deadline counts from the change of this statement if it stamps the column the timeout depends on, otherwise from the stored column.
+     */
+    private static Field<OffsetDateTime> nextTransitionAt(Mapper.DurationDecider next, TableField<MealOrderRecord, OffsetDateTime> stamped) {
+        if (next.since() == null || next.duration() == null)
+            return DSL.inline(null, SQLDataType.TIMESTAMPWITHTIMEZONE);
+
+        Field<OffsetDateTime> since = next.since().equals(stamped) ? CHANGED_AT : next.since();
+
+        return since.plus(DayToSecond.valueOf(next.duration()));
+    }
+
+    private void scheduleHousekeeping(Order order) {
+        var dueAt = Optional.ofNullable(order.getStateManagement())
+                .map(OrderStateManagement::getNextTransitionTimestamp)
+                .orElse(null);
+
+        jobQueue.schedule(order.getId(), Mapper.map(order.getOrderState()), dueAt);
+    }
+
+    private List<UUID> transitionInChunks(OrderState from, OrderState to, Condition due, UnaryOperator<UpdateSetMoreStep<MealOrderRecord>> transition) {
+        var updater = new Updater();
+        var guard = Tables.MEAL_ORDER.STATE.eq(from).and(due);
+        var next = Mapper.DurationDecider.fromState(config.stateTimeouts(), to);
+
+        var transitioned = new ArrayList<UUID>();
+
+        List<Order> chunk;
+        do {
+            chunk = Optional.ofNullable(transactionTemplate.execute(_ -> {
+                var update = ctx.update(Tables.MEAL_ORDER)
+                        .set(Tables.MEAL_ORDER.VERSION, DSL.uuid())
+                        .set(Tables.MEAL_ORDER.UPDATED_AT, CHANGED_AT)
+                        .set(Tables.MEAL_ORDER.UPDATED_BY, updater.user())
+                        .set(Tables.MEAL_ORDER.STATE, to)
+                        .set(Tables.MEAL_ORDER.NEXT_TRANSITION_AT, nextTransitionAt(next, null))
+                        .set(Tables.MEAL_ORDER.NEXT_TRANSITION_STATE, next.target());
+
+                var ids = transition.apply(update)
+                        .where(Tables.MEAL_ORDER.ID.in(
+                                DSL.select(Tables.MEAL_ORDER.ID)
+                                        .from(Tables.MEAL_ORDER)
+                                        .where(guard)
+                                        .orderBy(Tables.MEAL_ORDER.CREATED_AT.asc())
+                                        .limit(BULK_CHUNK_SIZE)
+                                        .forUpdate()
+                                        .skipLocked()
+                        ))
+                        .and(guard)
+                        .returning(Tables.MEAL_ORDER.ID)
+                        .fetch(Tables.MEAL_ORDER.ID);
+
+                if (ids.isEmpty())
+                    return List.<Order>of();
+
+                var orders = fetchOrders(Tables.MEAL_ORDER.ID.in(ids));
+                orders.forEach(this::scheduleHousekeeping);
+                return orders;
+            })).orElse(List.of());
+
+            chunk.forEach(order -> {
+                projection.update(order);
+                transitioned.add(order.getId());
+            });
+        } while (chunk.size() == BULK_CHUNK_SIZE);
+
+        return transitioned;
     }
 
     private void deleteOrder(UUID id, UUID etag, Consumer<MealOrderRecord> checker) {
@@ -167,25 +522,32 @@ public class OrderRepository {
 
             checker.accept(rec);
 
+            if (RestaurantReportRollup.COUNTED_STATES.contains(rec.getState()))
+                reportRollup.removeOrder(id);
+
             ctx.deleteFrom(Tables.ORDER_POSITION)
                     .where(Tables.ORDER_POSITION.ORDER_ID.eq(id))
                     .execute();
 
             rec.delete();
+
+            outbox.append(ChangeOutbox.Event.ORDER_DELETED, id, null);
         });
+
+        projection.remove(id);
     }
 
     public Order addOrderPosition(UUID orderId, OrderPositionPatch position) {
-        return changeOrderRecord(orderId, null, (updater, rec) -> {
-            var requiredStates = Set.of(OrderState.NEW, OrderState.OPEN, OrderState.REVOKED);
+        var requiredStates = Set.of(OrderState.NEW, OrderState.OPEN, OrderState.REVOKED);
+
+        return changeOrderPosition(orderId, "add", ChangeOutbox.Event.ORDER_POSITION_CREATED, (updater, rec) -> {
             if (!requiredStates.contains(rec.getState()))
                 throw new WrongOrderStateException(orderId, rec.getState(), requiredStates);
 
+            // fails early, the count is checked again once the order is locked
             if (ctx.fetchCount(Tables.ORDER_POSITION, Tables.ORDER_POSITION.ORDER_ID.eq(orderId)) + 1 > Optional.ofNullable(rec.getMaximumCountMeals()).orElse(Integer.MAX_VALUE))
                 throw new WrongMealCountException("Meal count is exceeded for this order", rec.getMaximumCountMeals());
 
-            rec.setState(OrderState.OPEN);
-
             var posRec = ctx.newRecord(Tables.ORDER_POSITION);
 
             posRec.setId(UUID.randomUUID())
@@ -204,11 +566,24 @@ public class OrderRepository {
                     .setTip(position.getTip());
 
             posRec.insert();
+
+            return new PositionWrite(requiredStates, OrderState.OPEN, true);
         });
     }
 
     public Order updateOrderPosition(UUID orderId, UUID positionId, OrderPositionPatch position) {
-        return changeOrderRecord(orderId, null, (updater, rec) -> {
+        return changeOrderPosition(orderId, "update", ChangeOutbox.Event.ORDER_POSITION_UPDATED, (updater, rec) -> {
+            var state = rec.getState();
+
+            // the rollup is locked after the order everywhere else, so counted orders are locked up front
+            var counted = RestaurantReportRollup.COUNTED_STATES.contains(state);
+            if (counted) {
+                ctx.selectFrom(Tables.MEAL_ORDER)
+                        .where(Tables.MEAL_ORDER.ID.eq(orderId))
+                        .forUpdate()
+                        .execute();
+            }
+
             var posRec = ctx.selectFrom(Tables.ORDER_POSITION)
                     .where(Tables.ORDER_POSITION.ID.eq(positionId))
                     .and(Tables.ORDER_POSITION.ORDER_ID.eq(orderId))
@@ -220,7 +595,7 @@ public class OrderRepository {
                     .setUpdatedAt(updater.timestamp())
                     .setUpdatedBy(updater.user());
 
-            switch (rec.getState()) {
+            switch (state) {
                 case OPEN -> posRec.setName(position.getName())
                         .setMeal(position.getMeal())
                         .setPrice(position.getPrice())
@@ -231,15 +606,23 @@ public class OrderRepository {
                         .setTip(position.getTip());
 
                 case null, default ->
-                        throw new WrongOrderStateException(orderId, rec.getState(), List.of(OrderState.OPEN));
+                        throw new WrongOrderStateException(orderId, state, List.of(OrderState.OPEN));
             }
 
+            if (counted)
+                reportRollup.removeOrder(orderId);
+
             posRec.update();
+
+            if (counted)
+                reportRollup.addOrder(orderId);
+
+            return new PositionWrite(Set.of(state), state, false);
         });
     }
 
     public Order removeOrderPosition(UUID orderId, UUID positionId) {
-        return changeOrderRecord(orderId, null, (_, rec) -> {
+        return changeOrderRecord(orderId, null, ChangeOutbox.Event.ORDER_POSITION_DELETED, (_, rec) -> {
             if (rec.getState() != OrderState.OPEN)
                 throw new WrongOrderStateException(orderId, rec.getState(), List.of(OrderState.OPEN));
 
@@ -259,87 +642,198 @@ public class OrderRepository {
     }
 
     public Order lockOrder(UUID orderId, UUID etag) {
-        return changeOrderRecord(orderId, etag, (updater, rec) -> {
-            if (rec.getState() != OrderState.OPEN)
-                throw new WrongOrderStateException(orderId, rec.getState(), List.of(OrderState.OPEN));
-
-            if (StringUtils.isBlank(rec.getOrderer()))
-                throw new OrderInfoIsNotCompleteException("Orderer");
-            if (StringUtils.isBlank(rec.getFetcher()))
-                throw new OrderInfoIsNotCompleteException("Fetcher");
-            if (StringUtils.isBlank(rec.getMoneyCollector()))
-                throw new OrderInfoIsNotCompleteException("MoneyCollector");
-
-            validateOrderFeeIsSatisfied(orderId, rec.getOrderFee());
-
-            rec.setState(OrderState.LOCKED);
-            rec.setLockedAt(updater.timestamp());
-        });
+        return transition(orderId, etag, OrderTransition.LOCK);
     }
 
     public Order reopenOrder(UUID orderId, UUID etag) {
-        return changeOrderRecord(orderId, etag, (updater, rec) -> {
-            if (rec.getState() != OrderState.LOCKED)
-                throw new WrongOrderStateException(orderId, rec.getState(), List.of(OrderState.LOCKED));
-
-            rec.setState(OrderState.OPEN);
-            rec.setLockedAt(updater.timestamp());
-            rec.setLockedAt(null);
-        });
+        return transition(orderId, etag, OrderTransition.REOPEN);
     }
 
     public Order setOrderToIsOrdered(UUID orderId, UUID etag) {
-        return changeOrderRecord(orderId, etag, (updater, rec) -> {
-            if (rec.getState() != OrderState.LOCKED)
-                throw new WrongOrderStateException(orderId, rec.getState(), List.of(OrderState.LOCKED));
-
-            rec.setState(OrderState.ORDERED);
-            rec.setOrderedAt(updater.timestamp());
-        });
+        return transition(orderId, etag, OrderTransition.ORDER);
     }
 
     public Order setOrderToDelivered(UUID orderId, UUID etag) {
-        return changeOrderRecord(orderId, etag, (updater, rec) -> {
-            if (rec.getState() != OrderState.ORDERED)
-                throw new WrongOrderStateException(orderId, rec.getState(), List.of(OrderState.ORDERED));
-
-            rec.setState(OrderState.DELIVERED);
-            rec.setDeliveredAt(updater.timestamp());
-        });
+        return transition(orderId, etag, OrderTransition.DELIVER);
     }
 
     public Order revokeOrder(UUID orderId, UUID etag) {
-        return changeOrderRecord(orderId, etag, (updater, rec) -> {
-            var requiredStates = Set.of(OrderState.OPEN, OrderState.LOCKED, OrderState.ORDERED);
-            if (!requiredStates.contains(rec.getState()))
-                throw new WrongOrderStateException(orderId, rec.getState(), requiredStates);
-
-            rec.setState(OrderState.REVOKED);
-            rec.setRevokedAt(updater.timestamp());
-        });
+        return transition(orderId, etag, OrderTransition.REVOKE);
     }
 
     public Order archiveOrder(UUID orderId, UUID etag) {
-        return changeOrderRecord(orderId, etag, (updater, rec) -> {
-            var requiredStates = Set.of(OrderState.DELIVERED, OrderState.ORDERED);
-            if (!requiredStates.contains(rec.getState()))
-                throw new WrongOrderStateException(orderId, rec.getState(), requiredStates);
+        return transition(orderId, etag, OrderTransition.ARCHIVE);
+    }
 
-            rec.setState(OrderState.ARCHIVED);
-            rec.setArchivedAt(updater.timestamp());
+    /**
+     * One update guarded by version, state and the conditions of the transition, so the row is locked for a single statement.
+     * Why it did not apply is only looked up if no row matched.
+     */
+    private Order transition(UUID orderId, UUID etag, OrderTransition transition) {
+        var updater = new Updater();
+        var next = Mapper.DurationDecider.fromState(config.stateTimeouts(), transition.to);
+
+        // joined to return the state before the update next to the updated row
+        var previous = Tables.MEAL_ORDER.as("PREVIOUS");
+        var previousState = previous.STATE.as("PREVIOUS_STATE");
+
+        var returned = new ArrayList<SelectFieldOrAsterisk>(List.of(Tables.MEAL_ORDER.fields()));
+        returned.add(previousState);
+
+        var order = transactionTemplate.execute(_ -> {
+            var update = ctx.update(Tables.MEAL_ORDER)
+                    .set(Tables.MEAL_ORDER.VERSION, UUID.randomUUID())
+                    .set(Tables.MEAL_ORDER.UPDATED_AT, CHANGED_AT)
+                    .set(Tables.MEAL_ORDER.UPDATED_BY, updater.user())
+                    .set(Tables.MEAL_ORDER.STATE, transition.to)
+                    .set(Tables.MEAL_ORDER.NEXT_TRANSITION_AT, nextTransitionAt(next, transition.stamped))
+                    .set(Tables.MEAL_ORDER.NEXT_TRANSITION_STATE, next.target());
+
+            if (transition.stamped != null)
+                update = update.set(transition.stamped, CHANGED_AT);
+            if (transition.cleared != null)
+                update = update.setNull(transition.cleared);
+
+            var row = update.from(previous)
+                    .where(Tables.MEAL_ORDER.ID.eq(orderId))
+                    .and(previous.ID.eq(Tables.MEAL_ORDER.ID))
+                    .and(Tables.MEAL_ORDER.VERSION.eq(etag))
+                    .and(Tables.MEAL_ORDER.STATE.in(transition.from))
+                    .and(transition.guard())
+                    .returningResult(returned)
+                    .fetchOptional()
+                    .orElseThrow(() -> diagnoseFailedTransition(orderId, etag, transition));
+
+            var wasCounted = RestaurantReportRollup.COUNTED_STATES.contains(row.get(previousState));
+            var isCounted = RestaurantReportRollup.COUNTED_STATES.contains(transition.to);
+            if (wasCounted && !isCounted)
+                reportRollup.removeOrder(orderId);
+            else if (!wasCounted && isCounted)
+                reportRollup.addOrder(orderId);
+
+            var positions = ctx.selectFrom(Tables.ORDER_POSITION)
+                    .where(Tables.ORDER_POSITION.ORDER_ID.eq(orderId))
+                    .orderBy(Tables.ORDER_POSITION.CREATED_AT.asc())
+                    .fetch();
+
+            var result = Mapper.map(config.stateTimeouts(), row.into(Tables.MEAL_ORDER), positions);
+            scheduleHousekeeping(result);
+            outbox.append(transition.event, orderId, result);
+            return result;
         });
+
+        projection.update(order);
+
+        return order;
+    }
+
+    private MealtimeException diagnoseFailedTransition(UUID orderId, UUID etag, OrderTransition transition) {
+        var rec = ctx.fetchOptional(Tables.MEAL_ORDER, Tables.MEAL_ORDER.ID.eq(orderId))
+                .orElse(null);
+
+        if (rec == null)
+            return new RecordNotFoundException("Order", orderId);
+
+        if (!rec.getVersion().equals(etag))
+            return new ConcurrentUpdateException("Order", etag);
+
+        if (!transition.from.contains(rec.getState()))
+            return new WrongOrderStateException(orderId, rec.getState(), transition.from);
+
+        if (transition.requiresCompleteInfos) {
+            if (StringUtils.isBlank(rec.getOrderer()))
+                return new OrderInfoIsNotCompleteException("Orderer");
+            if (StringUtils.isBlank(rec.getFetcher()))
+                return new OrderInfoIsNotCompleteException("Fetcher");
+            if (StringUtils.isBlank(rec.getMoneyCollector()))
+                return new OrderInfoIsNotCompleteException("MoneyCollector");
+
+            validateOrderFeeIsSatisfied(orderId, rec.getOrderFee());
+        }
+
+        // the order was changed after the update did not match it
+        return new ConcurrentUpdateException("Order", etag);
     }
 
-    private Order changeOrderRecord(UUID orderId, UUID etag, BiConsumer<Updater, MealOrderRecord> callback) {
+    /**
+     * Writes a position before the order is touched, so writers on the same order only queue up for the update of the order
+     * row and what follows it. That update is guarded by the states the write was based on, and the meal count is checked
+     * after it: every writer that had the row before has committed by then.
+     */
+    private Order changeOrderPosition(UUID orderId, String operation, ChangeOutbox.Event event, BiFunction<Updater, MealOrderRecord, PositionWrite> write) {
         var updater = new Updater();
+        var sample = Timer.start(meterRegistry);
+        var outcome = "failed";
+
+        try {
+            var order = transactionTemplate.execute(_ -> {
+                var rec = ctx.fetchOptional(Tables.MEAL_ORDER, Tables.MEAL_ORDER.ID.eq(orderId))
+                        .orElseThrow(() -> new RecordNotFoundException("Order", orderId));
+
+                var written = write.apply(updater, rec);
+                var next = Mapper.DurationDecider.fromState(config.stateTimeouts(), written.state());
+
+                // a write can change the state (a revoked order is opened again), the deadline follows the written state
+                var update = ctx.update(Tables.MEAL_ORDER)
+                        .set(Tables.MEAL_ORDER.VERSION, UUID.randomUUID())
+                        .set(Tables.MEAL_ORDER.UPDATED_AT, CHANGED_AT)
+                        .set(Tables.MEAL_ORDER.UPDATED_BY, updater.user())
+                        .set(Tables.MEAL_ORDER.STATE, written.state())
+                        .set(Tables.MEAL_ORDER.NEXT_TRANSITION_AT, nextTransitionAt(next, null))
+                        .set(Tables.MEAL_ORDER.NEXT_TRANSITION_STATE, next.target());
+
+                var lockWait = Timer.start(meterRegistry);
+                var touched = update.where(Tables.MEAL_ORDER.ID.eq(orderId))
+                        .and(Tables.MEAL_ORDER.STATE.in(written.requiredStates()))
+                        .returning()
+                        .fetchOptional();
+                lockWait.stop(meterRegistry.timer("order.position.lock.wait", "operation", operation));
+
+                var orderRec = touched.orElseThrow(() -> diagnoseFailedPositionWrite(orderId, operation, written.requiredStates()));
+
+                var positions = ctx.selectFrom(Tables.ORDER_POSITION)
+                        .where(Tables.ORDER_POSITION.ORDER_ID.eq(orderId))
+                        .orderBy(Tables.ORDER_POSITION.CREATED_AT.asc())
+                        .fetch();
+
+                if (written.added() && orderRec.getMaximumCountMeals() != null && positions.size() > orderRec.getMaximumCountMeals()) {
+                    meterRegistry.counter("order.position.conflict", "operation", operation, "reason", "meal-count").increment();
+                    throw new WrongMealCountException("Meal count is exceeded for this order", orderRec.getMaximumCountMeals());
+                }
+
+                var result = Mapper.map(config.stateTimeouts(), orderRec, positions);
+                scheduleHousekeeping(result);
+                outbox.append(event, orderId, result);
+                return result;
+            });
+
+            projection.update(order);
+
+            outcome = "applied";
+            return order;
+        } finally {
+            sample.stop(meterRegistry.timer("order.position.write", "operation", operation, "outcome", outcome));
+        }
+    }
 
-        return transactionTemplate.execute(_ -> {
+    private MealtimeException diagnoseFailedPositionWrite(UUID orderId, String operation, Collection<OrderState> requiredStates) {
+        meterRegistry.counter("order.position.conflict", "operation", operation, "reason", "state").increment();
+
+        return ctx.fetchOptional(Tables.MEAL_ORDER, Tables.MEAL_ORDER.ID.eq(orderId))
+                .<MealtimeException>map(rec -> new WrongOrderStateException(orderId, rec.getState(), requiredStates))
+                .orElseGet(() -> new RecordNotFoundException("Order", orderId));
+    }
+
+    private Order changeOrderRecord(UUID orderId, UUID etag, ChangeOutbox.Event event, BiConsumer<Updater, MealOrderRecord> callback) {
+        var order = transactionTemplate.execute(_ -> {
             var rec = ctx.selectFrom(Tables.MEAL_ORDER)
                     .where(Tables.MEAL_ORDER.ID.eq(orderId))
                     .forUpdate()
                     .fetchOptional()
                     .orElseThrow(() -> new RecordNotFoundException("Order", orderId));
 
+            var updater = new Updater(DefaultUser.DEFAULT_USER, ctx.select(CHANGED_AT).fetchSingle(CHANGED_AT));
+
             if (etag != null && !rec.getVersion().equals(etag))
                 throw new ConcurrentUpdateException("Order", etag);
 
@@ -349,33 +843,62 @@ public class OrderRepository {
                     .setUpdatedBy(updater.user())
                     .setUpdatedAt(updater.timestamp());
 
+            updateNextTransition(rec);
+
             rec.update();
 
-            return fetchOrder(orderId);
+            var result = fetchOrder(orderId);
+            scheduleHousekeeping(result);
+            outbox.append(event, orderId, result);
+            return result;
         });
+
+        projection.update(order);
+
+        return order;
+    }
+
+    private Condition activeOrdersCondition() {
+        return activeOrdersCondition(OffsetDateTime.now());
+    }
+
+    private Condition activeOrdersCondition(OffsetDateTime now) {
+        return DSL.or(
+                Tables.MEAL_ORDER.STATE.notIn(OrderState.ARCHIVED, OrderState.REVOKED),
+                Tables.MEAL_ORDER.REVOKED_AT.ge(now.minus(config.closedOrderLingering())),
+                Tables.MEAL_ORDER.ARCHIVED_AT.ge(now.minus(config.closedOrderLingering()))
+        );
+    }
+
+    // spelled out instead of negating activeOrdersCondition, which is NULL for closed orders
+    private Condition inactiveOrdersCondition(OffsetDateTime now) {
+        var lingeringUntil = now.minus(config.closedOrderLingering());
+
+        return DSL.and(
+                Tables.MEAL_ORDER.STATE.in(OrderState.ARCHIVED, OrderState.REVOKED),
+                Tables.MEAL_ORDER.REVOKED_AT.isNull().or(Tables.MEAL_ORDER.REVOKED_AT.lt(lingeringUntil)),
+                Tables.MEAL_ORDER.ARCHIVED_AT.isNull().or(Tables.MEAL_ORDER.ARCHIVED_AT.lt(lingeringUntil))
+        );
     }
 
     private List<Order> fetchOrders(Condition cond) {
-        var positionsByOrderId = ctx.selectFrom(Tables.ORDER_POSITION)
-                .orderBy(Tables.ORDER_POSITION.CREATED_AT.asc())
-                .fetch()
-                .intoGroups(Tables.ORDER_POSITION.ORDER_ID);
+        var positions = DSL.multiset(
+                DSL.selectFrom(Tables.ORDER_POSITION)
+                        .where(Tables.ORDER_POSITION.ORDER_ID.eq(Tables.MEAL_ORDER.ID))
+                        .orderBy(Tables.ORDER_POSITION.CREATED_AT.asc())
+        );
 
-        return ctx.selectFrom(Tables.MEAL_ORDER)
+        return ctx.select(Tables.MEAL_ORDER, positions)
+                .from(Tables.MEAL_ORDER)
                 .where(cond)
                 .orderBy(Tables.MEAL_ORDER.CREATED_AT.desc())
-                .fetch()
-                .map(rec -> Mapper.map(config.stateTimeouts(), rec, positionsByOrderId.get(rec.getId())));
+                .fetch(rec -> Mapper.map(config.stateTimeouts(), rec.value1(), rec.value2()));
     }
 
     private Order fetchOrder(UUID id) {
-        var positions = ctx.selectFrom(Tables.ORDER_POSITION)
-                .where(Tables.ORDER_POSITION.ORDER_ID.eq(id))
-                .orderBy(Tables.ORDER_POSITION.CREATED_AT.asc())
-                .fetch();
-
-        return ctx.fetchOptional(Tables.MEAL_ORDER, Tables.MEAL_ORDER.ID.eq(id))
-                .map(rec -> Mapper.map(config.stateTimeouts(), rec, positions))
+        return fetchOrders(Tables.MEAL_ORDER.ID.eq(id))
+                .stream()
+                .findFirst()
                 .orElseThrow(() -> new RecordNotFoundException("Order", id));
     }
 
@@ -395,6 +918,36 @@ public class OrderRepository {
             throw new FeeNotSatisfiedException("Tips not sufficient for order fee", sumTips, orderFee);
     }
 
+    private record ChangeToken(long seq, OffsetDateTime at) {
+
+        static Optional<ChangeToken> parse(String token) {
+            if (StringUtils.isBlank(token))
+                return Optional.empty();
+
+            // an unreadable token is answered like an expired one
+            var parts = token.split("-");
+            if (parts.length != 2)
+                return Optional.empty();
+
+            try {
+                var at = Instant.ofEpochMilli(Long.parseLong(parts[1])).atOffset(ZoneOffset.UTC);
+                return Optional.of(new ChangeToken(Long.parseLong(parts[0]), at));
+            } catch (NumberFormatException e) {
+                return Optional.empty();
+            }
+        }
+
+        String format() {
+            return seq + "-" + at.toInstant().toEpochMilli();
+        }
+    }
+
+    /**
+     * What a position write expects of the order: the states it has to still be in, the state it ends up in and whether a position was added
+     */
+    private record PositionWrite(Collection<OrderState> requiredStates, OrderState state, boolean added) {
+    }
+
     private record Updater(UUID user, OffsetDateTime timestamp) {
 
         public Updater() {
@@ -437,7 +990,7 @@ public class OrderRepository {
                                     .archivedAt(rec.getArchivedAt())
                                     .revokedAt(rec.getRevokedAt())
                                     .nextTransitionDuration(durationDecision.duration())
-                                    .nextTransitionTimestamp(durationDecision.nextTimestamp(rec))
+                                    .nextTransitionTimestamp(rec.getNextTransitionAt())
                                     .build()
                     )
                     .date(rec.getTargetDate())
@@ -462,31 +1015,32 @@ public class OrderRepository {
                     .build();
         }
 
-        private record DurationDecider(Duration duration, Function<MealOrderRecord, OffsetDateTime> extractor) {
+        private record DurationDecider(Duration duration, TableField<MealOrderRecord, OffsetDateTime> since, OrderState target) {
             public static DurationDecider fromState(OrderConfiguration.OrderStateTimeouts timeouts, OrderState state) {
                 return switch (state) {
-                    case NEW, OPEN -> new DurationDecider(timeouts.maxOpenTime(), MealOrderRecord::getUpdatedAt);
+                    case NEW, OPEN -> new DurationDecider(timeouts.maxOpenTime(), Tables.MEAL_ORDER.CREATED_AT, null);
 
-                    case LOCKED -> new DurationDecider(timeouts.lockedBeforeReopened(), MealOrderRecord::getLockedAt);
+                    case LOCKED ->
+                            new DurationDecider(timeouts.lockedBeforeReopened(), Tables.MEAL_ORDER.LOCKED_AT, OrderState.OPEN);
 
                     case ORDERED ->
-                            new DurationDecider(timeouts.orderedBeforeDelivered(), MealOrderRecord::getOrderedAt);
+                            new DurationDecider(timeouts.orderedBeforeDelivered(), Tables.MEAL_ORDER.ORDERED_AT, OrderState.DELIVERED);
 
                     case DELIVERED ->
-                            new DurationDecider(timeouts.deliveryBeforeArchive(), MealOrderRecord::getDeliveredAt);
+                            new DurationDecider(timeouts.deliveryBeforeArchive(), Tables.MEAL_ORDER.ORDERED_AT, OrderState.ARCHIVED);
 
-                    case REVOKED -> new DurationDecider(timeouts.revokedBeforeDeleted(), MealOrderRecord::getRevokedAt);
+                    case REVOKED ->
+                            new DurationDecider(timeouts.revokedBeforeDeleted(), Tables.MEAL_ORDER.REVOKED_AT, null);
 
-                    case null, default -> new DurationDecider(null, null);
+                    case null, default -> new DurationDecider(null, null, null);
                 };
             }
 
             public OffsetDateTime nextTimestamp(MealOrderRecord rec) {
-                if (extractor() == null || duration() == null)
+                if (since() == null || duration() == null || rec.get(since()) == null)
                     return null;
 
-                return extractor()
-                        .apply(rec)
+                return rec.get(since())
                         .plus(duration());
             }
         }
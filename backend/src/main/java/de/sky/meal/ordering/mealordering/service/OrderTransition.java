@@ -0,0 +1,81 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import generated.sky.meal.ordering.schema.Tables;
+import generated.sky.meal.ordering.schema.enums.OrderState;
+import generated.sky.meal.ordering.schema.tables.records.MealOrderRecord;
+import org.jooq.Condition;
+import org.jooq.TableField;
+import org.jooq.impl.DSL;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.util.Set;
+
+/**
+ * The state transitions a user can trigger, each is applied by {@link OrderRepository} as one guarded update.
+ */
+enum OrderTransition {
+    LOCK(ChangeOutbox.Event.ORDER_LOCKED, Set.of(OrderState.OPEN), OrderState.LOCKED, Tables.MEAL_ORDER.LOCKED_AT, null, true),
+    REOPEN(ChangeOutbox.Event.ORDER_REOPENED, Set.of(OrderState.LOCKED), OrderState.OPEN, null, Tables.MEAL_ORDER.LOCKED_AT, false),
+    ORDER(ChangeOutbox.Event.ORDER_ORDERED, Set.of(OrderState.LOCKED), OrderState.ORDERED, Tables.MEAL_ORDER.ORDERED_AT, null, false),
+    DELIVER(ChangeOutbox.Event.ORDER_DELIVERED, Set.of(OrderState.ORDERED), OrderState.DELIVERED, Tables.MEAL_ORDER.DELIVERED_AT, null, false),
+    REVOKE(ChangeOutbox.Event.ORDER_REVOKED, Set.of(OrderState.OPEN, OrderState.LOCKED, OrderState.ORDERED), OrderState.REVOKED, Tables.MEAL_ORDER.REVOKED_AT, null, false),
+    ARCHIVE(ChangeOutbox.Event.ORDER_ARCHIVED, Set.of(OrderState.DELIVERED, OrderState.ORDERED), OrderState.ARCHIVED, Tables.MEAL_ORDER.ARCHIVED_AT, null, false);
+
+    final ChangeOutbox.Event event;
+    final Set<OrderState> from;
+    final OrderState to;
+
+    /**
+     * Set to the time of the transition
+     */
+    final TableField<MealOrderRecord, OffsetDateTime> stamped;
+
+    /**
+     * Reset by the transition
+     */
+    final TableField<MealOrderRecord, OffsetDateTime> cleared;
+
+    /**
+     * Whether orderer, fetcher, money collector and a satisfied order fee are required
+     */
+    final boolean requiresCompleteInfos;
+
+    OrderTransition(ChangeOutbox.Event event, Set<OrderState> from, OrderState to, TableField<MealOrderRecord, OffsetDateTime> stamped,
+                    TableField<MealOrderRecord, OffsetDateTime> cleared, boolean requiresCompleteInfos) {
+        this.event = event;
+        this.from = from;
+        this.to = to;
+        this.stamped = stamped;
+        this.cleared = cleared;
+        this.requiresCompleteInfos = requiresCompleteInfos;
+    }
+
+    /**
+     * Everything but the version and the state that has to hold for the transition, evaluated on the row being updated.
+     */
+    Condition guard() {
+        if (!requiresCompleteInfos)
+            return DSL.noCondition();
+
+        var tips = DSL.coalesce(
+                DSL.field(
+                        DSL.select(DSL.sum(Tables.ORDER_POSITION.TIP))
+                                .from(Tables.ORDER_POSITION)
+                                .where(Tables.ORDER_POSITION.ORDER_ID.eq(Tables.MEAL_ORDER.ID))
+                ),
+                BigDecimal.ZERO
+        );
+
+        return DSL.and(
+                isPresent(Tables.MEAL_ORDER.ORDERER),
+                isPresent(Tables.MEAL_ORDER.FETCHER),
+                isPresent(Tables.MEAL_ORDER.MONEY_COLLECTOR),
+                Tables.MEAL_ORDER.ORDER_FEE.isNull().or(Tables.MEAL_ORDER.ORDER_FEE.le(tips.cast(Tables.MEAL_ORDER.ORDER_FEE.getDataType())))
+        );
+    }
+
+    private static Condition isPresent(TableField<MealOrderRecord, String> field) {
+        return DSL.trim(DSL.coalesce(field, "")).ne("");
+    }
+}
@@ -0,0 +1,61 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import com.google.common.base.Stopwatch;
+import generated.sky.meal.ordering.schema.Tables;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Optional;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RestaurantReportRebuild implements ApplicationRunner {
+
+    public static final String REBUILD_OPTION = "rebuild-restaurant-reports";
+
+    private final TransactionTemplate transactionTemplate;
+    private final DSLContext ctx;
+
+    private final RestaurantRepository restaurantRepository;
+    private final RestaurantReportRollup reportRollup;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (args.containsOption(REBUILD_OPTION)) {
+            log.info("Rebuild of restaurant reports was requested by --{}", REBUILD_OPTION);
+            rebuildAll();
+        } else if (Boolean.TRUE.equals(transactionTemplate.execute(_ -> isMissingReports()))) {
+            log.info("Restaurant reports are empty although there are reportable orders");
+            rebuildAll();
+        }
+    }
+
+    public int rebuildAll() {
+        log.info("Rebuilding restaurant reports ...");
+
+        var sw = Stopwatch.createStarted();
+
+        var ids = Optional.ofNullable(transactionTemplate.execute(_ -> ctx.select(Tables.RESTAURANT.ID)
+                        .from(Tables.RESTAURANT)
+                        .fetch(Tables.RESTAURANT.ID)))
+                .orElse(List.of());
+
+        ids.forEach(restaurantRepository::rebuildReport);
+
+        log.info("Rebuilt reports of {} restaurants in {}", ids.size(), sw.stop());
+
+        return ids.size();
+    }
+
+    private boolean isMissingReports() {
+        return reportRollup.isEmpty()
+                && ctx.fetchExists(Tables.MEAL_ORDER, Tables.MEAL_ORDER.STATE.in(RestaurantReportRollup.COUNTED_STATES));
+    }
+}
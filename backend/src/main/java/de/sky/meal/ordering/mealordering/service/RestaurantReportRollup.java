@@ -0,0 +1,220 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import generated.sky.meal.ordering.rest.model.RestaurantReport;
+import generated.sky.meal.ordering.rest.model.StatisticPerson;
+import generated.sky.meal.ordering.schema.enums.OrderState;
+import generated.sky.meal.ordering.schema.enums.ReportRankingCategory;
+import lombok.RequiredArgsConstructor;
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record4;
+import org.jooq.Select;
+import org.jooq.impl.DSL;
+import org.jooq.impl.SQLDataType;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static generated.sky.meal.ordering.schema.Tables.MEAL_ORDER;
+import static generated.sky.meal.ordering.schema.Tables.ORDER_POSITION;
+import static generated.sky.meal.ordering.schema.Tables.RESTAURANT_REPORT;
+import static generated.sky.meal.ordering.schema.Tables.RESTAURANT_REPORT_RANKING;
+
+@Service
+@RequiredArgsConstructor
+public class RestaurantReportRollup {
+
+    static final Set<OrderState> COUNTED_STATES = Set.of(OrderState.ORDERED, OrderState.DELIVERED, OrderState.ARCHIVED);
+
+    private static final int TOP_N = 20;
+
+    private final DSLContext ctx;
+
+    public void addOrder(UUID orderId) {
+        apply(MEAL_ORDER.ID.eq(orderId), 1);
+    }
+
+    public void removeOrder(UUID orderId) {
+        apply(MEAL_ORDER.ID.eq(orderId), -1);
+    }
+
+    public void removeOrders(Collection<UUID> orderIds) {
+        apply(MEAL_ORDER.ID.in(orderIds).and(MEAL_ORDER.STATE.in(COUNTED_STATES)), -1);
+    }
+
+    public void rebuild(UUID restaurantId) {
+        clear(restaurantId);
+
+        apply(MEAL_ORDER.RESTAURANT_ID.eq(restaurantId).and(MEAL_ORDER.STATE.in(COUNTED_STATES)), 1);
+    }
+
+    public void clear(UUID restaurantId) {
+        ctx.deleteFrom(RESTAURANT_REPORT_RANKING)
+                .where(RESTAURANT_REPORT_RANKING.RESTAURANT_ID.eq(restaurantId))
+                .execute();
+
+        ctx.deleteFrom(RESTAURANT_REPORT)
+                .where(RESTAURANT_REPORT.RESTAURANT_ID.eq(restaurantId))
+                .execute();
+    }
+
+    public RestaurantReport read(UUID restaurantId) {
+        var builder = RestaurantReport.builder()
+                .restaurantId(restaurantId);
+
+        ctx.selectFrom(RESTAURANT_REPORT)
+                .where(RESTAURANT_REPORT.RESTAURANT_ID.eq(restaurantId))
+                .fetchOptional()
+                .ifPresentOrElse(rec -> builder.countOfOrders(rec.getCountOfOrders())
+                                .countOfOrderedMeals(rec.getCountOfOrderedMeals())
+                                .overallPrice(rec.getOverallPrice())
+                                .overallTip(rec.getOverallTip()),
+                        () -> builder.countOfOrders(0)
+                                .countOfOrderedMeals(0)
+                                .overallPrice(0L)
+                                .overallTip(0L)
+                );
+
+        var rankings = readRankings(restaurantId);
+
+        return builder.topOrderers(rankings.getOrDefault(ReportRankingCategory.ORDERER, List.of()))
+                .topFetchers(rankings.getOrDefault(ReportRankingCategory.FETCHER, List.of()))
+                .topMoneyCollectors(rankings.getOrDefault(ReportRankingCategory.MONEY_COLLECTOR, List.of()))
+                .topParticipants(rankings.getOrDefault(ReportRankingCategory.PARTICIPANT, List.of()))
+                .topMeals(rankings.getOrDefault(ReportRankingCategory.MEAL, List.of()))
+                .build();
+    }
+
+    public boolean isEmpty() {
+        return !ctx.fetchExists(RESTAURANT_REPORT);
+    }
+
+    private Map<ReportRankingCategory, List<StatisticPerson>> readRankings(UUID restaurantId) {
+        var rank = DSL.rowNumber()
+                .over(DSL.partitionBy(RESTAURANT_REPORT_RANKING.CATEGORY)
+                        .orderBy(RESTAURANT_REPORT_RANKING.OCCURRENCES.desc(), RESTAURANT_REPORT_RANKING.NAME.asc()))
+                .as("RANK");
+
+        var ranked = DSL.select(RESTAURANT_REPORT_RANKING.CATEGORY, RESTAURANT_REPORT_RANKING.NAME, RESTAURANT_REPORT_RANKING.OCCURRENCES, rank)
+                .from(RESTAURANT_REPORT_RANKING)
+                .where(RESTAURANT_REPORT_RANKING.RESTAURANT_ID.eq(restaurantId))
+                .asTable("RANKED");
+
+        var category = ranked.field(RESTAURANT_REPORT_RANKING.CATEGORY);
+        var name = ranked.field(RESTAURANT_REPORT_RANKING.NAME);
+        var occurrences = ranked.field(RESTAURANT_REPORT_RANKING.OCCURRENCES);
+
+        return ctx.select(category, name, occurrences)
+                .from(ranked)
+                .where(ranked.field(rank).le(TOP_N))
+                .orderBy(category, occurrences.desc(), name)
+                .fetch()
+                .stream()
+                .collect(Collectors.groupingBy(
+                        rec -> rec.get(category),
+                        Collectors.mapping(rec -> StatisticPerson.builder()
+                                        .name(rec.get(name))
+                                        .count(rec.get(occurrences))
+                                        .build(),
+                                Collectors.toList())
+                ));
+    }
+
+    private void apply(Condition orders, int sign) {
+        applyTotals(orders, sign);
+
+        applyOrderRanking(orders, sign, ReportRankingCategory.ORDERER, MEAL_ORDER.ORDERER);
+        applyOrderRanking(orders, sign, ReportRankingCategory.FETCHER, MEAL_ORDER.FETCHER);
+        applyOrderRanking(orders, sign, ReportRankingCategory.MONEY_COLLECTOR, MEAL_ORDER.MONEY_COLLECTOR);
+        applyPositionRanking(orders, sign, ReportRankingCategory.PARTICIPANT, ORDER_POSITION.NAME);
+        applyPositionRanking(orders, sign, ReportRankingCategory.MEAL, ORDER_POSITION.MEAL);
+
+        if (sign < 0) {
+            ctx.deleteFrom(RESTAURANT_REPORT_RANKING)
+                    .where(RESTAURANT_REPORT_RANKING.OCCURRENCES.le(0))
+                    .and(RESTAURANT_REPORT_RANKING.RESTAURANT_ID.in(
+                            DSL.select(MEAL_ORDER.RESTAURANT_ID)
+                                    .from(MEAL_ORDER)
+                                    .where(orders)
+                    ))
+                    .execute();
+        }
+    }
+
+    private void applyTotals(Condition orders, int sign) {
+        ctx.insertInto(RESTAURANT_REPORT,
+                        RESTAURANT_REPORT.RESTAURANT_ID,
+                        RESTAURANT_REPORT.COUNT_OF_ORDERS,
+                        RESTAURANT_REPORT.COUNT_OF_ORDERED_MEALS,
+                        RESTAURANT_REPORT.OVERALL_PRICE,
+                        RESTAURANT_REPORT.OVERALL_TIP
+                )
+                .select(
+                        DSL.select(
+                                        MEAL_ORDER.RESTAURANT_ID,
+                                        DSL.countDistinct(MEAL_ORDER.ID).mul(sign),
+                                        DSL.count(ORDER_POSITION.ID).mul(sign),
+                                        signedSum(ORDER_POSITION.PRICE, sign),
+                                        signedSum(ORDER_POSITION.TIP, sign)
+                                )
+                                .from(MEAL_ORDER)
+                                .join(ORDER_POSITION).on(ORDER_POSITION.ORDER_ID.eq(MEAL_ORDER.ID))
+                                .where(orders)
+                                .groupBy(MEAL_ORDER.RESTAURANT_ID)
+                )
+                .onConflict(RESTAURANT_REPORT.RESTAURANT_ID)
+                .doUpdate()
+                .set(RESTAURANT_REPORT.COUNT_OF_ORDERS, RESTAURANT_REPORT.COUNT_OF_ORDERS.plus(DSL.excluded(RESTAURANT_REPORT.COUNT_OF_ORDERS)))
+                .set(RESTAURANT_REPORT.COUNT_OF_ORDERED_MEALS, RESTAURANT_REPORT.COUNT_OF_ORDERED_MEALS.plus(DSL.excluded(RESTAURANT_REPORT.COUNT_OF_ORDERED_MEALS)))
+                .set(RESTAURANT_REPORT.OVERALL_PRICE, RESTAURANT_REPORT.OVERALL_PRICE.plus(DSL.excluded(RESTAURANT_REPORT.OVERALL_PRICE)))
+                .set(RESTAURANT_REPORT.OVERALL_TIP, RESTAURANT_REPORT.OVERALL_TIP.plus(DSL.excluded(RESTAURANT_REPORT.OVERALL_TIP)))
+                .execute();
+    }
+
+    private void applyOrderRanking(Condition orders, int sign, ReportRankingCategory category, Field<String> subject) {
+        applyRanking(
+                DSL.select(MEAL_ORDER.RESTAURANT_ID, DSL.val(category), subject, DSL.count().mul(sign))
+                        .from(MEAL_ORDER)
+                        .where(orders)
+                        .and(subject.isNotNull())
+                        .groupBy(MEAL_ORDER.RESTAURANT_ID, subject)
+        );
+    }
+
+    private void applyPositionRanking(Condition orders, int sign, ReportRankingCategory category, Field<String> subject) {
+        applyRanking(
+                DSL.select(MEAL_ORDER.RESTAURANT_ID, DSL.val(category), subject, DSL.count().mul(sign))
+                        .from(MEAL_ORDER)
+                        .join(ORDER_POSITION).on(ORDER_POSITION.ORDER_ID.eq(MEAL_ORDER.ID))
+                        .where(orders)
+                        .groupBy(MEAL_ORDER.RESTAURANT_ID, subject)
+        );
+    }
+
+    private void applyRanking(Select<? extends Record4<UUID, ReportRankingCategory, String, Integer>> rows) {
+        ctx.insertInto(RESTAURANT_REPORT_RANKING,
+                        RESTAURANT_REPORT_RANKING.RESTAURANT_ID,
+                        RESTAURANT_REPORT_RANKING.CATEGORY,
+                        RESTAURANT_REPORT_RANKING.NAME,
+                        RESTAURANT_REPORT_RANKING.OCCURRENCES
+                )
+                .select(rows)
+                .onConflict(RESTAURANT_REPORT_RANKING.RESTAURANT_ID, RESTAURANT_REPORT_RANKING.CATEGORY, RESTAURANT_REPORT_RANKING.NAME)
+                .doUpdate()
+                .set(RESTAURANT_REPORT_RANKING.OCCURRENCES, RESTAURANT_REPORT_RANKING.OCCURRENCES.plus(DSL.excluded(RESTAURANT_REPORT_RANKING.OCCURRENCES)))
+                .execute();
+    }
+
+    private static Field<Long> signedSum(Field<Long> value, int sign) {
+        return DSL.coalesce(DSL.sum(value), BigDecimal.ZERO)
+                .mul(sign)
+                .cast(SQLDataType.BIGINT);
+    }
+}
@@ -2,38 +2,46 @@ package de.sky.meal.ordering.mealordering.service;
 
 import de.sky.meal.ordering.mealordering.config.DefaultUser;
 import de.sky.meal.ordering.mealordering.model.DatabaseFile;
+import de.sky.meal.ordering.mealordering.model.MenuPageMetadata;
 import de.sky.meal.ordering.mealordering.model.exceptions.AlreadyExistsException;
 import de.sky.meal.ordering.mealordering.model.exceptions.ColorIncorrectException;
 import de.sky.meal.ordering.mealordering.model.exceptions.ConcurrentUpdateException;
+import de.sky.meal.ordering.mealordering.model.exceptions.FileTooBigException;
 import de.sky.meal.ordering.mealordering.model.exceptions.NegativeFeeException;
 import de.sky.meal.ordering.mealordering.model.exceptions.RecordNotFoundException;
 import de.sky.meal.ordering.mealordering.model.exceptions.WrongOrderStateException;
+import de.sky.meal.ordering.mealordering.utils.LimitedInputStream;
+import de.sky.meal.ordering.mealordering.utils.MediaTypeSniffingInputStream;
 import generated.sky.meal.ordering.rest.model.Address;
 import generated.sky.meal.ordering.rest.model.MenuPage;
 import generated.sky.meal.ordering.rest.model.Restaurant;
 import generated.sky.meal.ordering.rest.model.RestaurantPatch;
 import generated.sky.meal.ordering.rest.model.RestaurantReport;
-import generated.sky.meal.ordering.rest.model.StatisticPerson;
 import generated.sky.meal.ordering.schema.Tables;
 import generated.sky.meal.ordering.schema.enums.OrderState;
-import generated.sky.meal.ordering.schema.tables.records.MealOrderRecord;
-import generated.sky.meal.ordering.schema.tables.records.MenuPageRecord;
-import generated.sky.meal.ordering.schema.tables.records.OrderPositionRecord;
 import generated.sky.meal.ordering.schema.tables.records.RestaurantRecord;
 import lombok.RequiredArgsConstructor;
+import org.jooq.Condition;
 import org.jooq.DSLContext;
-import org.jooq.TableField;
+import org.jooq.Records;
 import org.jooq.impl.DSL;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionTemplate;
 
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.IntFunction;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static org.jooq.impl.DSL.select;
@@ -43,9 +51,16 @@ import static org.jooq.impl.DSL.select;
 public class RestaurantRepository {
     private static final Pattern COLOR_PATTERN = Pattern.compile("^#([0-9a-f]{6})$");
 
+    public static final int FILE_SIZE_LIMIT = 5 * 1024 * 1024; // 5MB
+
     private final DSLContext ctx;
     private final TransactionTemplate transactionTemplate;
 
+    private final ActiveOrderProjection orderProjection;
+    private final BlobStore blobStore;
+    private final RestaurantReportRollup reportRollup;
+    private final ChangeOutbox outbox;
+
     public Restaurant createRestaurant(RestaurantPatch restaurant) {
         validateAvatarColor(restaurant);
         validateOrderFee(restaurant);
@@ -86,7 +101,7 @@ public class RestaurantRepository {
 
             dbRestaurant.insert();
 
-            return fetchRestaurant(status, id);
+            return appendEvent(ChangeOutbox.Event.RESTAURANT_CREATED, fetchRestaurant(status, id));
         });
     }
 
@@ -132,7 +147,7 @@ public class RestaurantRepository {
 
             rec.update();
 
-            return fetchRestaurant(status, id);
+            return appendEvent(ChangeOutbox.Event.RESTAURANT_UPDATED, fetchRestaurant(status, id));
         });
     }
 
@@ -144,6 +159,16 @@ public class RestaurantRepository {
         return transactionTemplate.execute(status -> fetchRestaurant(status, id));
     }
 
+    public UUID readRestaurantVersion(UUID id) {
+        return transactionTemplate.execute(_ ->
+                ctx.select(Tables.RESTAURANT.VERSION)
+                        .from(Tables.RESTAURANT)
+                        .where(Tables.RESTAURANT.ID.eq(id))
+                        .fetchOptional(Tables.RESTAURANT.VERSION)
+                        .orElseThrow(() -> new RecordNotFoundException("Restaurant", id))
+        );
+    }
+
     public void deleteRestaurant(UUID id, UUID etag) {
         transactionTemplate.executeWithoutResult(status -> {
             var rec = fetchRestaurant(status, id);
@@ -153,6 +178,8 @@ public class RestaurantRepository {
             if (ctx.fetchExists(Tables.MEAL_ORDER, DSL.and(Tables.MEAL_ORDER.RESTAURANT_ID.eq(id), Tables.MEAL_ORDER.STATE.notIn(OrderState.NEW, OrderState.REVOKED, OrderState.ARCHIVED))))
                 throw new WrongOrderStateException("Can not delete restaurant with open orders");
 
+            reportRollup.clear(id);
+
             ctx.deleteFrom(Tables.ORDER_POSITION)
                     .where(Tables.ORDER_POSITION.ORDER_ID.in(
                             select(Tables.MEAL_ORDER.ID)
@@ -175,13 +202,19 @@ public class RestaurantRepository {
 
             if (deleted == 0)
                 throw new RecordNotFoundException("Restaurant", id);
+
+            outbox.append(ChangeOutbox.Event.RESTAURANT_DELETED, id, null);
         });
+
+        orderProjection.removeByRestaurant(id);
     }
 
     public Restaurant addMenuPageToRestaurant(UUID restaurantId, DatabaseFile file) {
         var ts = OffsetDateTime.now();
         var updater = DefaultUser.DEFAULT_USER;
 
+        var blob = storeBlob(file);
+
         return transactionTemplate.execute(status -> {
             var restaurantRec = ctx.selectFrom(Tables.RESTAURANT)
                     .where(Tables.RESTAURANT.ID.eq(restaurantId))
@@ -197,8 +230,9 @@ public class RestaurantRepository {
             page.setRestaurantId(restaurantId);
 
             page.setName(file.name())
-                    .setImageData(file.data())
-                    .setImageDataMediaType(file.contentType().toString());
+                    .setImageDataMediaType(blob.mediaType().toString())
+                    .setImageDataSize(blob.size())
+                    .setImageDataHash(blob.hash());
 
             page.insert();
 
@@ -208,7 +242,7 @@ public class RestaurantRepository {
 
             restaurantRec.update();
 
-            return fetchRestaurant(status, restaurantId);
+            return appendEvent(ChangeOutbox.Event.RESTAURANT_UPDATED, fetchRestaurant(status, restaurantId));
         });
     }
 
@@ -237,7 +271,7 @@ public class RestaurantRepository {
 
             restaurantRec.update();
 
-            return fetchRestaurant(status, restaurantId);
+            return appendEvent(ChangeOutbox.Event.RESTAURANT_UPDATED, fetchRestaurant(status, restaurantId));
         });
     }
 
@@ -245,104 +279,125 @@ public class RestaurantRepository {
         var rec = ctx.fetchOptional(Tables.MENU_PAGE, Tables.MENU_PAGE.ID.eq(pageId).and(Tables.MENU_PAGE.RESTAURANT_ID.eq(restaurantId)))
                 .orElseThrow(() -> new RecordNotFoundException("Restaurant", restaurantId, "MenuPage", pageId));
 
+        var content = Optional.ofNullable(rec.getImageData())
+                .<Resource>map(ByteArrayResource::new)
+                .or(() -> blobStore.load(rec.getImageDataHash()))
+                .orElseThrow(() -> new IllegalStateException("Content of MenuPage %s with hash %s is missing in blob store".formatted(pageId, rec.getImageDataHash())));
+
         return new DatabaseFile(
                 rec.getName(),
                 rec.getImageDataMediaType(),
-                rec.getImageData()
+                rec.getImageDataSize(),
+                content
         );
     }
 
-    public RestaurantReport fetchReport(UUID id) {
-        return transactionTemplate.execute(_ -> {
-            if (!ctx.fetchExists(Tables.RESTAURANT, Tables.RESTAURANT.ID.eq(id)))
-                throw new RecordNotFoundException("Restaurant", id);
+    public Optional<DatabaseFile> readMenuPageThumbnail(UUID restaurantId, UUID pageId) {
+        var rec = ctx.select(Tables.MENU_PAGE.NAME, Tables.MENU_PAGE.THUMBNAIL_MEDIA_TYPE, Tables.MENU_PAGE.THUMBNAIL_SIZE, Tables.MENU_PAGE.THUMBNAIL_HASH)
+                .from(Tables.MENU_PAGE)
+                .where(Tables.MENU_PAGE.ID.eq(pageId))
+                .and(Tables.MENU_PAGE.RESTAURANT_ID.eq(restaurantId))
+                .fetchOptional()
+                .orElseThrow(() -> new RecordNotFoundException("Restaurant", restaurantId, "MenuPage", pageId));
 
-            var builder = RestaurantReport.builder()
-                    .restaurantId(id);
+        if (rec.value4() == null)
+            return Optional.empty();
 
-            var orderCountField = DSL.countDistinct(Tables.MEAL_ORDER.ID);
-            var positionCountField = DSL.countDistinct(Tables.ORDER_POSITION.ID);
-            var priceSumField = DSL.sum(Tables.ORDER_POSITION.PRICE);
-            var tipSumField = DSL.sum(Tables.ORDER_POSITION.TIP);
+        return blobStore.load(rec.value4())
+                .map(content -> new DatabaseFile("thumbnail-" + rec.value1(), rec.value2(), rec.value3(), content));
+    }
 
-            ctx.select(orderCountField, positionCountField, priceSumField, tipSumField)
-                    .from(Tables.ORDER_POSITION)
-                    .join(Tables.MEAL_ORDER).on(Tables.MEAL_ORDER.ID.eq(Tables.ORDER_POSITION.ORDER_ID))
-                    .where(Tables.MEAL_ORDER.STATE.in(OrderState.ARCHIVED, OrderState.DELIVERED, OrderState.ORDERED))
-                    .and(Tables.MEAL_ORDER.RESTAURANT_ID.eq(id))
-                    .groupBy(Tables.MEAL_ORDER.RESTAURANT_ID)
-                    .fetchOptional()
-                    .ifPresentOrElse(rec -> {
-                        var orders = rec.get(orderCountField);
-                        var positions = rec.get(positionCountField);
-                        var price = Optional.ofNullable(rec.get(priceSumField)).map(BigDecimal::longValueExact).orElse(0L);
-                        var tip = Optional.ofNullable(rec.get(tipSumField)).map(BigDecimal::longValueExact).orElse(0L);
-
-                        builder.countOfOrders(orders)
-                                .countOfOrderedMeals(positions)
-                                .overallPrice(price)
-                                .overallTip(tip);
-                    }, () -> {
-                        builder.countOfOrders(0)
-                                .countOfOrderedMeals(0)
-                                .overallPrice(0L)
-                                .overallTip(0L);
-                    });
+    /**
+     * Leaves out pages whose media type has no thumbnail and those whose last attempt failed until their retry is due.
+     */
+    public List<MenuPageMetadata> readMenuPagesWithoutThumbnail(UUID restaurantId) {
+        var retryDue = Tables.MENU_PAGE.THUMBNAIL_RETRY_AT.isNull().or(Tables.MENU_PAGE.THUMBNAIL_RETRY_AT.le(OffsetDateTime.now()));
+
+        return transactionTemplate.execute(_ -> fetchMenuPageMetadata(
+                Tables.MENU_PAGE.RESTAURANT_ID.eq(restaurantId)
+                        .and(Tables.MENU_PAGE.THUMBNAIL_HASH.isNull())
+                        .and(Tables.MENU_PAGE.THUMBNAIL_UNSUPPORTED.isFalse())
+                        .and(retryDue)
+        ));
+    }
 
-            builder.topOrderers(reportFetchMostOfMealOrder(ctx, id, Tables.MEAL_ORDER.ORDERER));
-            builder.topFetchers(reportFetchMostOfMealOrder(ctx, id, Tables.MEAL_ORDER.FETCHER));
-            builder.topMoneyCollectors(reportFetchMostOfMealOrder(ctx, id, Tables.MEAL_ORDER.MONEY_COLLECTOR));
-            builder.topParticipants(reportFetchMostOfOrderPosition(ctx, id, Tables.ORDER_POSITION.NAME));
-            builder.topMeals(reportFetchMostOfOrderPosition(ctx, id, Tables.ORDER_POSITION.MEAL));
+    public void markMenuPageThumbnailUnsupported(UUID pageId) {
+        transactionTemplate.executeWithoutResult(_ ->
+                ctx.update(Tables.MENU_PAGE)
+                        .set(Tables.MENU_PAGE.THUMBNAIL_UNSUPPORTED, true)
+                        .setNull(Tables.MENU_PAGE.THUMBNAIL_RETRY_AT)
+                        .where(Tables.MENU_PAGE.ID.eq(pageId))
+                        .execute()
+        );
+    }
+
+    public void markMenuPageThumbnailFailed(UUID pageId, IntFunction<Duration> backoff) {
+        transactionTemplate.executeWithoutResult(_ -> {
+            var failures = ctx.select(Tables.MENU_PAGE.THUMBNAIL_FAILURES)
+                    .from(Tables.MENU_PAGE)
+                    .where(Tables.MENU_PAGE.ID.eq(pageId))
+                    .forUpdate()
+                    .fetchOptional(Tables.MENU_PAGE.THUMBNAIL_FAILURES);
 
-            return builder.build();
+            failures.ifPresent(count -> ctx.update(Tables.MENU_PAGE)
+                    .set(Tables.MENU_PAGE.THUMBNAIL_FAILURES, count + 1)
+                    .set(Tables.MENU_PAGE.THUMBNAIL_RETRY_AT, OffsetDateTime.now().plus(backoff.apply(count + 1)))
+                    .where(Tables.MENU_PAGE.ID.eq(pageId))
+                    .execute());
         });
     }
 
-    private static List<StatisticPerson> reportFetchMostOfMealOrder(DSLContext ctx, UUID restaurantId, TableField<MealOrderRecord, String> subject) {
-        var cntField = DSL.count();
+    public void setMenuPageThumbnail(UUID pageId, DatabaseFile thumbnail) {
+        var blob = storeBlob(thumbnail);
+
+        transactionTemplate.executeWithoutResult(_ ->
+                ctx.update(Tables.MENU_PAGE)
+                        .set(Tables.MENU_PAGE.THUMBNAIL_MEDIA_TYPE, blob.mediaType().toString())
+                        .set(Tables.MENU_PAGE.THUMBNAIL_SIZE, blob.size())
+                        .set(Tables.MENU_PAGE.THUMBNAIL_HASH, blob.hash())
+                        .set(Tables.MENU_PAGE.THUMBNAIL_FAILURES, 0)
+                        .setNull(Tables.MENU_PAGE.THUMBNAIL_RETRY_AT)
+                        .where(Tables.MENU_PAGE.ID.eq(pageId))
+                        .execute()
+        );
+    }
 
-        return ctx.select(subject, cntField)
-                .from(Tables.MEAL_ORDER)
-                .where(Tables.MEAL_ORDER.STATE.in(OrderState.ARCHIVED, OrderState.DELIVERED, OrderState.ORDERED))
-                .and(Tables.MEAL_ORDER.RESTAURANT_ID.eq(restaurantId))
-                .groupBy(subject)
-                .orderBy(cntField.desc())
-                .limit(20)
-                .fetch()
-                .map(rec ->
-                        StatisticPerson.builder()
-                                .name(rec.get(subject))
-                                .count(rec.get(cntField))
-                                .build()
-                );
+    private StoredFile storeBlob(DatabaseFile file) {
+        try (var in = file.content().getInputStream();
+             var limited = new LimitedInputStream(in, FILE_SIZE_LIMIT, size -> new FileTooBigException(file.name(), size, FILE_SIZE_LIMIT));
+             var sniffing = new MediaTypeSniffingInputStream(limited)) {
+            var blob = blobStore.store(sniffing);
+
+            return new StoredFile(blob.hash(), blob.size(), sniffing.mediaType().orElse(file.contentType()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("MenuPage %s could not be stored".formatted(file.name()), e);
+        }
     }
 
-    private static List<StatisticPerson> reportFetchMostOfOrderPosition(DSLContext ctx, UUID restaurantId, TableField<OrderPositionRecord, String> subject) {
-        var cntField = DSL.count();
-
-        return ctx.select(subject, cntField)
-                .from(Tables.MEAL_ORDER)
-                .join(Tables.ORDER_POSITION).on(Tables.MEAL_ORDER.ID.eq(Tables.ORDER_POSITION.ORDER_ID))
-                .where(Tables.MEAL_ORDER.STATE.in(OrderState.ARCHIVED, OrderState.DELIVERED, OrderState.ORDERED))
-                .and(Tables.MEAL_ORDER.RESTAURANT_ID.eq(restaurantId))
-                .groupBy(subject)
-                .orderBy(cntField.desc())
-                .limit(20)
-                .fetch()
-                .map(rec ->
-                        StatisticPerson.builder()
-                                .name(rec.get(subject))
-                                .count(rec.get(cntField))
-                                .build()
-                );
+    public RestaurantReport fetchReport(UUID id) {
+        return transactionTemplate.execute(_ -> {
+            var report = reportRollup.read(id);
+
+            if (report.getCountOfOrders() == 0 && !ctx.fetchExists(Tables.RESTAURANT, Tables.RESTAURANT.ID.eq(id)))
+                throw new RecordNotFoundException("Restaurant", id);
+
+            return report;
+        });
+    }
+
+    public void rebuildReport(UUID id) {
+        transactionTemplate.executeWithoutResult(_ -> reportRollup.rebuild(id));
+    }
+
+    private Restaurant appendEvent(ChangeOutbox.Event event, Restaurant restaurant) {
+        outbox.append(event, restaurant.getId(), restaurant);
+        return restaurant;
     }
 
     private List<Restaurant> fetchRestaurants(TransactionStatus status) {
-        var pagesByRestaurantId = ctx.selectFrom(Tables.MENU_PAGE)
-                .orderBy(Tables.MENU_PAGE.CREATED_AT.desc())
-                .fetch()
-                .intoGroups(Tables.MENU_PAGE.RESTAURANT_ID);
+        var pagesByRestaurantId = fetchMenuPageMetadata(DSL.noCondition())
+                .stream()
+                .collect(Collectors.groupingBy(MenuPageMetadata::restaurantId));
 
         return ctx.selectFrom(Tables.RESTAURANT)
                 .orderBy(Tables.RESTAURANT.NAME)
@@ -351,16 +406,31 @@ public class RestaurantRepository {
     }
 
     private Restaurant fetchRestaurant(TransactionStatus status, UUID id) {
-        var pages = ctx.selectFrom(Tables.MENU_PAGE)
-                .where(Tables.MENU_PAGE.RESTAURANT_ID.eq(id))
-                .orderBy(Tables.MENU_PAGE.CREATED_AT.desc())
-                .fetch();
+        var pages = fetchMenuPageMetadata(Tables.MENU_PAGE.RESTAURANT_ID.eq(id));
 
         return ctx.fetchOptional(Tables.RESTAURANT, Tables.RESTAURANT.ID.eq(id))
                 .map(rec -> map(rec, pages))
                 .orElseThrow(() -> new RecordNotFoundException("Restaurant", id));
     }
 
+    private List<MenuPageMetadata> fetchMenuPageMetadata(Condition cond) {
+        return ctx.select(
+                        Tables.MENU_PAGE.ID,
+                        Tables.MENU_PAGE.RESTAURANT_ID,
+                        Tables.MENU_PAGE.NAME,
+                        Tables.MENU_PAGE.IMAGE_DATA_MEDIA_TYPE,
+                        Tables.MENU_PAGE.IMAGE_DATA_SIZE,
+                        Tables.MENU_PAGE.IMAGE_DATA_HASH
+                )
+                .from(Tables.MENU_PAGE)
+                .where(cond)
+                .orderBy(Tables.MENU_PAGE.RESTAURANT_ID, Tables.MENU_PAGE.CREATED_AT.desc())
+                .fetch(Records.mapping(MenuPageMetadata::new));
+    }
+
+    private record StoredFile(String hash, long size, MediaType mediaType) {
+    }
+
     private static void validateAvatarColor(RestaurantPatch restaurant) {
         if (restaurant.getAvatarColor() == null || !COLOR_PATTERN.matcher(restaurant.getAvatarColor()).matches())
             throw new ColorIncorrectException("Restaurant Color is incorrect", restaurant.getAvatarColor());
@@ -371,7 +441,7 @@ public class RestaurantRepository {
             throw new NegativeFeeException("Negative default Order Fee for Restaurant is not allowed", restaurant.getOrderFee());
     }
 
-    private static Restaurant map(RestaurantRecord rec, List<MenuPageRecord> pages) {
+    private static Restaurant map(RestaurantRecord rec, List<MenuPageMetadata> pages) {
         return Restaurant.builder()
                 .id(rec.getId())
                 .createdAt(rec.getCreatedAt())
@@ -402,9 +472,12 @@ public class RestaurantRepository {
                                 .mapToObj(idx -> {
                                     var p = pages.get(idx);
                                     return MenuPage.builder()
-                                            .id(p.getId())
+                                            .id(p.id())
                                             .index(idx)
-                                            .name(p.getName())
+                                            .name(p.name())
+                                            .mediaType(p.mediaType())
+                                            .size(p.size())
+                                            .hash(p.hash())
                                             .build();
                                 })
                                 .toList()
@@ -1,58 +1,258 @@
 package de.sky.meal.ordering.mealordering.service;
 
 import de.sky.meal.ordering.mealordering.config.NotificationConfiguration;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClient;
 
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
 @Service
 @Slf4j
-@RequiredArgsConstructor
 public class RocketChatService {
 
-    private final NotificationConfiguration config;
+    private static final String MESSAGE_PREFIX = "`Mealtime:` ";
+    private static final int MAX_MESSAGE_LENGTH = 4000;
+    // the prefix is added when posting, the text has to leave room for it
+    private static final int MAX_TEXT_LENGTH = MAX_MESSAGE_LENGTH - MESSAGE_PREFIX.length();
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(10);
 
-    public void sendMessage(String message) {
-        var conf = config.rocketChat();
+    private final NotificationConfiguration.RocketChatConfig config;
+    private final MeterRegistry meterRegistry;
+
+    private final BlockingQueue<String> queue;
+    private final AtomicReference<AuthToken> token = new AtomicReference<>();
+
+    private final RestClient client;
+    private final Thread sender;
+
+    private String carry;
+
+    public RocketChatService(NotificationConfiguration config, MeterRegistry meterRegistry) {
+        this.config = config.rocketChat();
+        this.meterRegistry = meterRegistry;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, this.config.queueCapacity()));
+
+        meterRegistry.gaugeCollectionSize("notification.rocketchat.queue", Tags.empty(), queue);
+
+        if (!this.config.enabled()) {
+            this.client = null;
+            this.sender = null;
+            return;
+        }
+
+        // the JDK client keeps its connections alive and reuses them for every request
+        var httpClient = HttpClient.newBuilder()
+                .connectTimeout(this.config.connectTimeout())
+                .build();
+
+        var requestFactory = new JdkClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(this.config.readTimeout());
+
+        this.client = RestClient.builder()
+                .baseUrl(this.config.baseUrl())
+                .requestFactory(requestFactory)
+                .defaultHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                .build();
+
+        this.sender = Thread.ofVirtual()
+                .name("rocketchat-sender")
+                .start(this::sendQueuedMessages);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (sender == null)
+            return;
 
-        if (!conf.enabled())
+        sender.interrupt();
+        sender.join(SHUTDOWN_TIMEOUT);
+
+        if (!queue.isEmpty())
+            log.warn("Discarding {} RocketChat messages on shutdown", queue.size());
+    }
+
+    public void sendMessage(String message) {
+        if (!config.enabled())
             return;
 
+        if (!queue.offer(message)) {
+            log.warn("RocketChat send queue is full, dropping message: {}", message);
+            meterRegistry.counter("notification.rocketchat.dropped").increment();
+        }
+    }
+
+    private void sendQueuedMessages() {
+        while (!Thread.currentThread().isInterrupted()) {
+            String first;
+            try {
+                first = carry != null ? carry : queue.take();
+                carry = null;
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            split(coalesce(first)).forEach(this::send);
+        }
+    }
+
+    /**
+     * Cuts a text into chat messages that fit the maximum length together with the prefix, preferably at line breaks.
+     */
+    static List<String> split(String text) {
+        var chunks = new ArrayList<String>();
+
+        var rest = text;
+        while (rest.length() > MAX_TEXT_LENGTH) {
+            var cut = rest.lastIndexOf('\n', MAX_TEXT_LENGTH);
+            if (cut <= 0)
+                cut = MAX_TEXT_LENGTH;
+
+            chunks.add(rest.substring(0, cut));
+            rest = rest.substring(cut).stripLeading();
+        }
+
+        if (!rest.isEmpty())
+            chunks.add(rest);
+
+        return chunks;
+    }
+
+    /**
+     * Joins everything that arrives within the coalesce window after the first message, as long as it fits into one chat message.
+     */
+    private String coalesce(String first) {
+        var text = new StringBuilder(first.strip());
+        var deadline = System.nanoTime() + config.coalesceWindow().toNanos();
+        var count = 1;
+
         try {
-            var client = RestClient.builder()
-                    .baseUrl(conf.baseUrl())
-                    .build();
-
-            var tokenResponse = client.post()
-                    .uri("/api/v1/login")
-                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
-                    .body(new UserCredentials(conf.user(), conf.password()))
-                    .retrieve()
-                    .body(RocketChatTokenResponse.class);
-
-            if (tokenResponse == null || !"success".equalsIgnoreCase(tokenResponse.status()) || tokenResponse.data() == null) {
-                log.error("Failed to login to rocket chat: {}", tokenResponse);
+            while (true) {
+                var next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (next == null)
+                    break;
+
+                if (text.length() + next.length() + 1 > MAX_TEXT_LENGTH) {
+                    carry = next;
+                    break;
+                }
+
+                text.append('\n').append(next.strip());
+                count++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (count > 1)
+            meterRegistry.counter("notification.rocketchat.coalesced").increment(count - 1);
+
+        return text.toString();
+    }
+
+    private void send(String text) {
+        var sample = Timer.start(meterRegistry);
+        var backoff = config.retryBackoff();
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                post(text);
+
+                sample.stop(meterRegistry.timer("notification.rocketchat.send", Tags.of("result", "sent")));
+                log.info("RocketChat message successfully sent after {} attempt(s)", attempt);
                 return;
+            } catch (HttpClientErrorException e) {
+                if (e.getStatusCode().value() != HttpStatus.TOO_MANY_REQUESTS.value() || attempt >= config.maxAttempts()) {
+                    sample.stop(meterRegistry.timer("notification.rocketchat.send", Tags.of("result", "rejected")));
+                    log.error("Message to RocketChat was rejected with {} after {} attempt(s)", e.getStatusCode(), attempt, e);
+                    return;
+                }
+
+                log.warn("RocketChat is rate limiting, retrying in {}", backoff);
+                meterRegistry.counter("notification.rocketchat.retry").increment();
+            } catch (Exception e) {
+                if (attempt >= config.maxAttempts()) {
+                    sample.stop(meterRegistry.timer("notification.rocketchat.send", Tags.of("result", "failed")));
+                    log.error("Message to RocketChat could not be sent after {} attempts", attempt, e);
+                    return;
+                }
+
+                log.warn("Message to RocketChat could not be sent, retrying in {}", backoff, e);
+                meterRegistry.counter("notification.rocketchat.retry").increment();
             }
 
-            var response = client.post()
-                    .uri("api/v1/chat.postMessage")
-                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
-                    .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
-                    .header("X-Auth-Token", tokenResponse.data().authToken())
-                    .header("X-User-Id", tokenResponse.data().userId())
-                    .body(new RocketChatMessage(conf.targetChannel(), "`Mealtime:` " + message))
-                    .retrieve();
-
-            log.info("RocketChat message successfully sent: {}", response.toEntity(String.class));
-        } catch (Exception e) {
-            log.error("Message to RocketChat could not be sent", e);
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            backoff = backoff.multipliedBy(2);
+        }
+    }
+
+    private void post(String text) {
+        var auth = authToken();
+
+        try {
+            postMessage(auth, text);
+        } catch (HttpClientErrorException.Unauthorized e) {
+            log.info("RocketChat token was rejected, logging in again");
+            token.compareAndSet(auth, null);
+
+            postMessage(authToken(), text);
         }
     }
 
+    private void postMessage(AuthToken auth, String text) {
+        client.post()
+                .uri("/api/v1/chat.postMessage")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("X-Auth-Token", auth.authToken())
+                .header("X-User-Id", auth.userId())
+                .body(new RocketChatMessage(config.targetChannel(), MESSAGE_PREFIX + text))
+                .retrieve()
+                .toBodilessEntity();
+    }
+
+    private AuthToken authToken() {
+        var cached = token.get();
+        if (cached != null)
+            return cached;
+
+        var tokenResponse = client.post()
+                .uri("/api/v1/login")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(new UserCredentials(config.user(), config.password()))
+                .retrieve()
+                .body(RocketChatTokenResponse.class);
+
+        meterRegistry.counter("notification.rocketchat.login").increment();
+
+        if (tokenResponse == null || !"success".equalsIgnoreCase(tokenResponse.status()) || tokenResponse.data() == null)
+            throw new IllegalStateException("Failed to login to rocket chat: " + tokenResponse);
+
+        token.set(tokenResponse.data());
+        return tokenResponse.data();
+    }
+
     private record UserCredentials(String user, String password) {
 
     }
@@ -61,11 +261,11 @@ public class RocketChatService {
 
     }
 
-    private record RocketChatTokenResponse(String status, RocketChatTokenDataResponse data) {
+    private record RocketChatTokenResponse(String status, AuthToken data) {
 
     }
 
-    private record RocketChatTokenDataResponse(String userId, String authToken) {
+    private record AuthToken(String userId, String authToken) {
 
     }
 }
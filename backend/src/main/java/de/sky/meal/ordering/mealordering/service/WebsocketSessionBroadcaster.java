@@ -1,37 +1,67 @@
 package de.sky.meal.ordering.mealordering.service;
 
-import de.sky.meal.ordering.mealordering.observers.MessageBroadcaster;
+import de.sky.meal.ordering.mealordering.config.WebsocketSessionConfiguration;
+import de.sky.meal.ordering.mealordering.observers.LocalMessageBroadcaster;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.AbstractWebSocketHandler;
-import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
 
+import java.util.Arrays;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Slf4j
 @Service
-public class WebsocketSessionBroadcaster extends AbstractWebSocketHandler implements MessageBroadcaster {
+public class WebsocketSessionBroadcaster extends AbstractWebSocketHandler implements LocalMessageBroadcaster {
 
-    private static final int MAX_NUMBER_OF_SESSIONS = 100;
+    private final WebsocketSessionConfiguration config;
+    private final MeterRegistry meterRegistry;
 
-    private final Map<String, ConcurrentWebSocketSessionDecorator> sessions = new ConcurrentHashMap<>();
+    private final Map<String, WebsocketSessionChannel> sessions = new ConcurrentHashMap<>();
+    private final WebsocketSubscriptionIndex subscriptions = new WebsocketSubscriptionIndex();
+
+    private final Timer lag;
+
+    public WebsocketSessionBroadcaster(WebsocketSessionConfiguration config, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.meterRegistry = meterRegistry;
+
+        this.lag = Timer.builder("websocket.session.lag")
+                .description("Time a message waited in the outbound queue of a session")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+
+        meterRegistry.gaugeMapSize("websocket.sessions", Tags.empty(), sessions);
+        meterRegistry.gauge("websocket.subscription.topics", Tags.empty(), subscriptions, WebsocketSubscriptionIndex::topicCount);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sessions.values().forEach(channel -> channel.close(CloseStatus.GOING_AWAY));
+        sessions.clear();
+    }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
         cleanup();
 
-        if (sessions.size() >= MAX_NUMBER_OF_SESSIONS) {
+        if (sessions.size() >= config.maxSessions()) {
             log.warn("Denying new websocket connection due to overload");
             session.close(CloseStatus.SERVICE_OVERLOAD);
             return;
         }
 
-        var tmp = new ConcurrentWebSocketSessionDecorator(session, 1000, 1 << 16);
-        sessions.put(tmp.getId(), tmp);
+        sessions.put(session.getId(), new WebsocketSessionChannel(session, config.queueCapacity(), lag));
 
         log.info("New Websocket session added ...");
     }
@@ -41,16 +71,23 @@ public class WebsocketSessionBroadcaster extends AbstractWebSocketHandler implem
         log.info("Removing disconnecting websocket session ...");
 
         var removed = sessions.remove(session.getId());
+        subscriptions.remove(session.getId());
 
         if (removed != null)
-            removed.close();
+            removed.close(status);
 
         cleanup();
     }
 
     private void cleanup() {
         int oldSize = sessions.size();
-        sessions.entrySet().removeIf(e -> !e.getValue().isOpen());
+        sessions.entrySet().removeIf(e -> {
+            if (e.getValue().isOpen())
+                return false;
+
+            subscriptions.remove(e.getKey());
+            return true;
+        });
         int newSize = sessions.size();
 
         log.debug("Cleaned up {} websocket sessions", oldSize - newSize);
@@ -58,26 +95,91 @@ public class WebsocketSessionBroadcaster extends AbstractWebSocketHandler implem
 
     @Override
     public void sendMessage(String message) {
-        log.info("Sending WebsocketMessage: {}", message);
+        log.info("Sending WebsocketMessage to {} sessions: {}", sessions.size(), message);
 
-        var msg = new TextMessage(message);
+        var frame = WebsocketSessionChannel.Frame.of(message);
 
-        sessions.forEach((_, session) -> {
-            try {
-                session.sendMessage(msg);
-            } catch (Exception e) {
-                log.error("Failed to send message to websocket", e);
-            }
-        });
+        sessions.values().forEach(channel -> enqueue(channel, frame));
+
+        meterRegistry.summary("websocket.message.recipients").record(sessions.size());
+    }
+
+    @Override
+    public void sendMessage(String message, Set<String> topics) {
+        var frame = WebsocketSessionChannel.Frame.of(message);
+        var subscribers = subscriptions.subscribers(topics);
+
+        var recipients = 0;
+        for (var channel : sessions.values()) {
+            if (subscriptions.isFiltered(channel.getId()) && !subscribers.contains(channel.getId()))
+                continue;
+
+            enqueue(channel, frame);
+            recipients++;
+        }
+
+        log.info("Sent WebsocketMessage for {} to {} of {} sessions: {}", topics, recipients, sessions.size(), message);
+
+        meterRegistry.summary("websocket.message.recipients").record(recipients);
     }
 
+    /**
+     * Besides {@code ping} a client can send {@code subscribe <topic>...} and {@code unsubscribe <topic>...},
+     * see {@link WebsocketTopics} for the topics.
+     */
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
         if ("ping".equalsIgnoreCase(message.getPayload())) {
             log.trace("Answering session={} ping with pong", session.getId());
-            session.sendMessage(new TextMessage("pong"));
+
+            var channel = sessions.get(session.getId());
+            if (channel != null)
+                enqueue(channel, WebsocketSessionChannel.Frame.of("pong"));
+
             log.debug("Answered session={} ping with pong", session.getId());
             return;
         }
+
+        var parts = message.getPayload().strip().split("\\s+");
+        var topics = Arrays.stream(parts)
+                .skip(1)
+                .map(WebsocketTopics::parse)
+                .flatMap(Optional::stream)
+                .toList();
+
+        if (topics.size() != parts.length - 1)
+            log.warn("Ignoring unknown topics in websocket message of session={}: {}", session.getId(), message.getPayload());
+
+        switch (parts[0].toLowerCase(Locale.ROOT)) {
+            case "subscribe" -> subscriptions.subscribe(session.getId(), topics);
+            case "unsubscribe" -> subscriptions.unsubscribe(session.getId(), topics);
+            default -> log.debug("Ignoring unknown websocket message of session={}: {}", session.getId(), message.getPayload());
+        }
+    }
+
+    private void enqueue(WebsocketSessionChannel channel, WebsocketSessionChannel.Frame frame) {
+        // a client that did not take anything for so long is not going to catch up
+        if (channel.backlogAge(frame.enqueuedAt()).compareTo(config.maxLag()) > 0) {
+            disconnect(channel, "lagging");
+            return;
+        }
+
+        if (channel.offer(frame))
+            return;
+
+        switch (config.slowConsumerPolicy()) {
+            case DISCONNECT -> disconnect(channel, "overflow");
+            case DROP -> meterRegistry.counter("websocket.message.dropped").increment();
+        }
+    }
+
+    private void disconnect(WebsocketSessionChannel channel, String reason) {
+        log.warn("Disconnecting slow websocket session {} ({})", channel.getId(), reason);
+
+        meterRegistry.counter("websocket.session.disconnected", Tags.of("reason", reason)).increment();
+
+        sessions.remove(channel.getId(), channel);
+        subscriptions.remove(channel.getId());
+        channel.close(CloseStatus.SESSION_NOT_RELIABLE);
     }
 }
@@ -0,0 +1,119 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outbound side of one websocket session: frames are queued by the broadcaster and written by a virtual thread of its own,
+ * so a slow client only ever blocks itself.
+ */
+@Slf4j
+final class WebsocketSessionChannel {
+
+    private final WebSocketSession session;
+    private final BlockingQueue<Frame> queue;
+    private final Timer lag;
+    private final Thread writer;
+
+    private volatile boolean closed = false;
+    private volatile CloseStatus closeStatus = CloseStatus.NORMAL;
+
+    WebsocketSessionChannel(WebSocketSession session, int capacity, Timer lag) {
+        this.session = session;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.lag = lag;
+        this.writer = Thread.ofVirtual()
+                .name("websocket-" + session.getId())
+                .start(this::write);
+    }
+
+    String getId() {
+        return session.getId();
+    }
+
+    boolean isOpen() {
+        return !closed && session.isOpen();
+    }
+
+    boolean offer(Frame frame) {
+        return !closed && queue.offer(frame);
+    }
+
+    Duration backlogAge(long now) {
+        var head = queue.peek();
+        if (head == null)
+            return Duration.ZERO;
+
+        return Duration.ofNanos(now - head.enqueuedAt());
+    }
+
+    /**
+     * Only marks the channel closed, it is called while broadcasting. The writer closes the session, as the close frame has
+     * to wait for a send that is stuck on a slow client.
+     */
+    void close(CloseStatus status) {
+        if (closed)
+            return;
+
+        closeStatus = status;
+        closed = true;
+        writer.interrupt();
+        queue.clear();
+    }
+
+    private void write() {
+        try {
+            while (!closed) {
+                Frame frame;
+                try {
+                    frame = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                lag.record(System.nanoTime() - frame.enqueuedAt(), TimeUnit.NANOSECONDS);
+
+                try {
+                    session.sendMessage(frame.message());
+                } catch (Exception e) {
+                    if (closed)
+                        return;
+
+                    log.info("Failed to send message to websocket session {}, closing it", session.getId(), e);
+                    close(CloseStatus.SESSION_NOT_RELIABLE);
+                    return;
+                }
+            }
+        } finally {
+            closeSession();
+        }
+    }
+
+    private void closeSession() {
+        try {
+            if (session.isOpen())
+                session.close(closeStatus);
+        } catch (IOException e) {
+            log.debug("Websocket session {} could not be closed cleanly", session.getId(), e);
+        }
+    }
+
+    /**
+     * One frame is shared by all sessions of a broadcast.
+     */
+    record Frame(TextMessage message, long enqueuedAt) {
+
+        static Frame of(String payload) {
+            return new Frame(new TextMessage(payload), System.nanoTime());
+        }
+    }
+}
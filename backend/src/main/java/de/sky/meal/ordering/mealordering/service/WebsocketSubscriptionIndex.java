@@ -0,0 +1,78 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sessions that never subscribed receive everything, once a session subscribed it only receives its topics.
+ */
+final class WebsocketSubscriptionIndex {
+
+    private final Map<String, Set<String>> sessionsByTopic = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> topicsBySession = new ConcurrentHashMap<>();
+
+    synchronized void subscribe(String sessionId, Collection<String> topics) {
+        // registering nothing would mute the session
+        if (topics.isEmpty())
+            return;
+
+        var subscribed = topicsBySession.computeIfAbsent(sessionId, _ -> new HashSet<>());
+
+        for (var topic : topics) {
+            if (subscribed.add(topic))
+                sessionsByTopic.computeIfAbsent(topic, _ -> ConcurrentHashMap.newKeySet()).add(sessionId);
+        }
+    }
+
+    synchronized void unsubscribe(String sessionId, Collection<String> topics) {
+        var subscribed = topicsBySession.get(sessionId);
+        if (subscribed == null)
+            return;
+
+        for (var topic : topics) {
+            if (subscribed.remove(topic))
+                removeFromTopic(topic, sessionId);
+        }
+    }
+
+    synchronized void remove(String sessionId) {
+        var subscribed = topicsBySession.remove(sessionId);
+        if (subscribed == null)
+            return;
+
+        subscribed.forEach(topic -> removeFromTopic(topic, sessionId));
+    }
+
+    boolean isFiltered(String sessionId) {
+        return topicsBySession.containsKey(sessionId);
+    }
+
+    Set<String> subscribers(Collection<String> topics) {
+        var result = new HashSet<String>();
+
+        for (var topic : topics) {
+            var sessions = sessionsByTopic.get(topic);
+            if (sessions != null)
+                result.addAll(sessions);
+        }
+
+        return result;
+    }
+
+    int topicCount() {
+        return sessionsByTopic.size();
+    }
+
+    private void removeFromTopic(String topic, String sessionId) {
+        var sessions = sessionsByTopic.get(topic);
+        if (sessions == null)
+            return;
+
+        sessions.remove(sessionId);
+        if (sessions.isEmpty())
+            sessionsByTopic.remove(topic);
+    }
+}
@@ -0,0 +1,80 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import generated.sky.meal.ordering.rest.model.ChangeEvent;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Topics a websocket session can subscribe to: {@code orders}, {@code restaurants}, {@code order:<id>} and {@code restaurant:<id>}.
+ */
+public final class WebsocketTopics {
+
+    public static final String ORDERS = "orders";
+    public static final String RESTAURANTS = "restaurants";
+
+    private static final String ORDER_PREFIX = "order:";
+    private static final String RESTAURANT_PREFIX = "restaurant:";
+
+    private WebsocketTopics() {
+    }
+
+    public static String order(UUID id) {
+        return ORDER_PREFIX + id;
+    }
+
+    public static String restaurant(UUID id) {
+        return RESTAURANT_PREFIX + id;
+    }
+
+    public static Optional<String> parse(String topic) {
+        var normalized = topic.strip().toLowerCase(Locale.ROOT);
+
+        if (normalized.equals(ORDERS) || normalized.equals(RESTAURANTS))
+            return Optional.of(normalized);
+
+        if (normalized.startsWith(ORDER_PREFIX))
+            return parseId(normalized.substring(ORDER_PREFIX.length())).map(WebsocketTopics::order);
+
+        if (normalized.startsWith(RESTAURANT_PREFIX))
+            return parseId(normalized.substring(RESTAURANT_PREFIX.length())).map(WebsocketTopics::restaurant);
+
+        return Optional.empty();
+    }
+
+    /**
+     * Orders that were created, deleted or changed their state go to the list topic and to their own, any other update of an order
+     * only to its own topic. Restaurant updates are also routed to the list topic, as the list shows their details.
+     */
+    public static Set<String> of(ChangeEvent event) {
+        var topics = new LinkedHashSet<String>();
+        var subjects = Optional.ofNullable(event.getSubjects()).orElseGet(List::of);
+
+        switch (event.getEventType()) {
+            case ORDERS_CHANGED -> {
+                topics.add(ORDERS);
+                subjects.forEach(id -> topics.add(order(id)));
+            }
+            case ORDER_UPDATED -> subjects.forEach(id -> topics.add(order(id)));
+            case RESTAURANTS_CHANGED -> topics.add(RESTAURANTS);
+            case RESTAURANT_UPDATED -> {
+                topics.add(RESTAURANTS);
+                subjects.forEach(id -> topics.add(restaurant(id)));
+            }
+        }
+
+        return topics;
+    }
+
+    private static Optional<UUID> parseId(String id) {
+        try {
+            return Optional.of(UUID.fromString(id));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+}
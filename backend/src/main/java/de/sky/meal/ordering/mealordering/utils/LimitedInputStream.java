@@ -0,0 +1,54 @@
+package de.sky.meal.ordering.mealordering.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.function.LongFunction;
+
+public class LimitedInputStream extends FilterInputStream {
+    private final long limit;
+    private final LongFunction<? extends RuntimeException> onExceeded;
+
+    private long count = 0;
+
+    public LimitedInputStream(InputStream in, long limit, LongFunction<? extends RuntimeException> onExceeded) {
+        super(Objects.requireNonNull(in));
+        this.limit = limit;
+        this.onExceeded = Objects.requireNonNull(onExceeded);
+    }
+
+    @Override
+    public int read() throws IOException {
+        var b = super.read();
+        if (b >= 0)
+            count(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        var n = super.read(b, off, len);
+        if (n > 0)
+            count(n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        var skipped = super.skip(n);
+        count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void count(long n) {
+        count += n;
+        if (count > limit)
+            throw onExceeded.apply(count);
+    }
+}
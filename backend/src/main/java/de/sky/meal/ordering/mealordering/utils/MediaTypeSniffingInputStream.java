@@ -0,0 +1,75 @@
+package de.sky.meal.ordering.mealordering.utils;
+
+import org.springframework.http.MediaType;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+
+public class MediaTypeSniffingInputStream extends FilterInputStream {
+    private static final int HEAD_SIZE = 12;
+
+    private static final MediaType IMAGE_WEBP = MediaType.parseMediaType("image/webp");
+
+    private final byte[] head = new byte[HEAD_SIZE];
+    private int headLength = 0;
+
+    public MediaTypeSniffingInputStream(InputStream in) {
+        super(Objects.requireNonNull(in));
+    }
+
+    @Override
+    public int read() throws IOException {
+        var b = super.read();
+        if (b >= 0 && headLength < HEAD_SIZE)
+            head[headLength++] = (byte) b;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        var n = super.read(b, off, len);
+        if (n > 0 && headLength < HEAD_SIZE) {
+            var copy = Math.min(n, HEAD_SIZE - headLength);
+            System.arraycopy(b, off, head, headLength, copy);
+            headLength += copy;
+        }
+        return n;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    public Optional<MediaType> mediaType() {
+        var h = Arrays.copyOf(head, headLength);
+
+        if (startsWith(h, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A))
+            return Optional.of(MediaType.IMAGE_PNG);
+        if (startsWith(h, 0xFF, 0xD8, 0xFF))
+            return Optional.of(MediaType.IMAGE_JPEG);
+        if (startsWith(h, 'G', 'I', 'F', '8'))
+            return Optional.of(MediaType.IMAGE_GIF);
+        if (h.length >= HEAD_SIZE && startsWith(h, 'R', 'I', 'F', 'F') && "WEBP".equals(new String(h, 8, 4, StandardCharsets.US_ASCII)))
+            return Optional.of(IMAGE_WEBP);
+
+        return Optional.empty();
+    }
+
+    private static boolean startsWith(byte[] data, int... prefix) {
+        if (data.length < prefix.length)
+            return false;
+
+        for (int i = 0; i < prefix.length; i++) {
+            if ((data[i] & 0xFF) != prefix[i])
+                return false;
+        }
+
+        return true;
+    }
+}
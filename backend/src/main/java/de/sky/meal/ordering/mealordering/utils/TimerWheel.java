@@ -0,0 +1,132 @@
+package de.sky.meal.ordering.mealordering.utils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+public class TimerWheel<K, V> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final int OVERDUE = LEVELS * SLOTS;
+
+    private final long tickMillis;
+
+    private final Map<K, Entry<V>> entries = new HashMap<>();
+    private final List<Set<K>> buckets;
+
+    private long currentTick;
+
+    public TimerWheel(Duration tick, Instant start) {
+        if (tick.toMillis() <= 0)
+            throw new IllegalArgumentException("Tick must be at least one millisecond: " + tick);
+
+        this.tickMillis = tick.toMillis();
+        this.currentTick = floorTick(start);
+        this.buckets = Stream.<Set<K>>generate(LinkedHashSet::new)
+                .limit(OVERDUE + 1)
+                .toList();
+    }
+
+    public synchronized void schedule(K key, V value, Instant deadline) {
+        cancel(key);
+
+        var deadlineTick = ceilTick(deadline);
+        place(key, new Entry<>(value, deadlineTick, deadlineTick <= currentTick ? OVERDUE : bucketFor(deadlineTick)));
+    }
+
+    public synchronized boolean cancel(K key) {
+        var entry = entries.remove(key);
+        if (entry == null)
+            return false;
+
+        buckets.get(entry.bucket()).remove(key);
+        return true;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized Map<K, V> advance(Instant now) {
+        var expired = new LinkedHashMap<K, V>();
+
+        expire(OVERDUE, expired);
+
+        var targetTick = floorTick(now);
+        while (currentTick < targetTick) {
+            currentTick++;
+
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0)
+                    cascade(index(level, currentTick));
+            }
+
+            expire(index(0, currentTick), expired);
+        }
+
+        return expired;
+    }
+
+    private void cascade(int bucket) {
+        var keys = List.copyOf(buckets.get(bucket));
+        buckets.get(bucket).clear();
+
+        for (var key : keys) {
+            var entry = entries.get(key);
+            var target = entry.deadlineTick() <= currentTick ? index(0, currentTick) : bucketFor(entry.deadlineTick());
+
+            place(key, new Entry<>(entry.value(), entry.deadlineTick(), target));
+        }
+    }
+
+    private void expire(int bucket, Map<K, V> expired) {
+        for (var key : buckets.get(bucket))
+            expired.put(key, entries.remove(key).value());
+
+        buckets.get(bucket).clear();
+    }
+
+    private void place(K key, Entry<V> entry) {
+        entries.put(key, entry);
+        buckets.get(entry.bucket()).add(key);
+    }
+
+    private int bucketFor(long deadlineTick) {
+        for (int level = 0; level < LEVELS - 1; level++) {
+            var shift = SLOT_BITS * (level + 1);
+            if ((deadlineTick >> shift) == (currentTick >> shift))
+                return index(level, deadlineTick);
+        }
+
+        var shift = SLOT_BITS * (LEVELS - 1);
+        if ((deadlineTick >> shift) - (currentTick >> shift) < SLOTS)
+            return index(LEVELS - 1, deadlineTick);
+
+        // beyond the outermost wheel: park in the slot cascaded last in this revolution, it is re-placed from there
+        return index(LEVELS - 1, currentTick - (1L << shift));
+    }
+
+    private long floorTick(Instant ts) {
+        return Math.floorDiv(ts.toEpochMilli(), tickMillis);
+    }
+
+    private long ceilTick(Instant ts) {
+        return -Math.floorDiv(-ts.toEpochMilli(), tickMillis);
+    }
+
+    private static int index(int level, long tick) {
+        return level * SLOTS + (int) ((tick >> (SLOT_BITS * level)) & MASK);
+    }
+
+    private record Entry<V>(V value, long deadlineTick, int bucket) {
+    }
+}
@@ -0,0 +1,3 @@
+DROP INDEX IDX_ORDER_POSITION_ORDER_ID;
+
+CREATE INDEX IDX_ORDER_POSITION_ORDER_ID_CREATED_AT ON ORDER_POSITION (ORDER_ID, CREATED_AT);
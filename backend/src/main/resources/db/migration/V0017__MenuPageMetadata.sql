@@ -0,0 +1,18 @@
+ALTER TABLE MENU_PAGE
+    ADD COLUMN IMAGE_DATA_SIZE BIGINT,
+    ADD COLUMN IMAGE_DATA_HASH TEXT;
+
+UPDATE MENU_PAGE
+SET IMAGE_DATA_SIZE = LENGTH(IMAGE_DATA),
+    IMAGE_DATA_HASH = ENCODE(SHA256(IMAGE_DATA), 'hex');
+
+ALTER TABLE MENU_PAGE
+    ALTER COLUMN IMAGE_DATA_SIZE SET NOT NULL,
+    ALTER COLUMN IMAGE_DATA_HASH SET NOT NULL,
+    ADD CONSTRAINT CHK_IMAGE_DATA_SIZE CHECK (0 <= IMAGE_DATA_SIZE),
+    ADD CONSTRAINT CHK_IMAGE_DATA_HASH CHECK (IMAGE_DATA_HASH ~ '^[0-9a-f]{64}$');
+
+DROP INDEX IDX_MENU_PAGE_RESTAURANT_ID;
+
+CREATE INDEX IDX_MENU_PAGE_LISTING ON MENU_PAGE (RESTAURANT_ID, CREATED_AT DESC)
+    INCLUDE (ID, NAME, IMAGE_DATA_MEDIA_TYPE, IMAGE_DATA_SIZE, IMAGE_DATA_HASH);
@@ -0,0 +1,4 @@
+ALTER TABLE MENU_PAGE
+    ALTER COLUMN IMAGE_DATA DROP NOT NULL;
+
+CREATE INDEX IDX_MENU_PAGE_LEGACY_IMAGE_DATA ON MENU_PAGE (ID) WHERE IMAGE_DATA IS NOT NULL;
@@ -0,0 +1,10 @@
+ALTER TABLE MENU_PAGE
+    ADD COLUMN THUMBNAIL_MEDIA_TYPE TEXT CHECK (THUMBNAIL_MEDIA_TYPE <> ''),
+    ADD COLUMN THUMBNAIL_SIZE       BIGINT CHECK (0 <= THUMBNAIL_SIZE),
+    ADD COLUMN THUMBNAIL_HASH       TEXT CHECK (THUMBNAIL_HASH ~ '^[0-9a-f]{64}$');
+
+ALTER TABLE MENU_PAGE
+    ADD CONSTRAINT CHK_THUMBNAIL_COMPLETE CHECK (
+        (THUMBNAIL_HASH IS NULL AND THUMBNAIL_SIZE IS NULL AND THUMBNAIL_MEDIA_TYPE IS NULL) OR
+        (THUMBNAIL_HASH IS NOT NULL AND THUMBNAIL_SIZE IS NOT NULL AND THUMBNAIL_MEDIA_TYPE IS NOT NULL)
+        );
@@ -0,0 +1,29 @@
+CREATE TYPE REPORT_RANKING_CATEGORY AS ENUM(
+    'ORDERER',
+    'FETCHER',
+    'MONEY_COLLECTOR',
+    'PARTICIPANT',
+    'MEAL'
+);
+
+CREATE TABLE RESTAURANT_REPORT
+(
+    RESTAURANT_ID          UUID PRIMARY KEY NOT NULL REFERENCES RESTAURANT (ID),
+
+    COUNT_OF_ORDERS        INTEGER          NOT NULL DEFAULT 0,
+    COUNT_OF_ORDERED_MEALS INTEGER          NOT NULL DEFAULT 0,
+    OVERALL_PRICE          BIGINT           NOT NULL DEFAULT 0,
+    OVERALL_TIP            BIGINT           NOT NULL DEFAULT 0
+);
+
+CREATE TABLE RESTAURANT_REPORT_RANKING
+(
+    RESTAURANT_ID UUID                    NOT NULL REFERENCES RESTAURANT (ID),
+    CATEGORY      REPORT_RANKING_CATEGORY NOT NULL,
+    NAME          TEXT                    NOT NULL,
+    OCCURRENCES   INTEGER                 NOT NULL,
+
+    PRIMARY KEY (RESTAURANT_ID, CATEGORY, NAME)
+);
+
+CREATE INDEX IDX_RESTAURANT_REPORT_RANKING_TOP ON RESTAURANT_REPORT_RANKING (RESTAURANT_ID, CATEGORY, OCCURRENCES DESC);
@@ -0,0 +1,18 @@
+CREATE TABLE HOUSEKEEPING_JOB
+(
+    ORDER_ID      UUID PRIMARY KEY         NOT NULL REFERENCES MEAL_ORDER (ID) ON DELETE CASCADE,
+    STATE         ORDER_STATE              NOT NULL,
+    DUE_AT        TIMESTAMP WITH TIME ZONE NOT NULL,
+
+    CLAIMED_BY    UUID,
+    CLAIMED_UNTIL TIMESTAMP WITH TIME ZONE,
+    ATTEMPTS      INTEGER                  NOT NULL DEFAULT 0
+);
+
+CREATE INDEX IDX_HOUSEKEEPING_JOB_DUE_AT ON HOUSEKEEPING_JOB (DUE_AT);
+
+-- due right away, the first claim re-schedules every job with its real deadline
+INSERT INTO HOUSEKEEPING_JOB (ORDER_ID, STATE, DUE_AT)
+SELECT ID, STATE, NOW()
+FROM MEAL_ORDER
+WHERE STATE IN ('LOCKED', 'ORDERED', 'DELIVERED', 'REVOKED');
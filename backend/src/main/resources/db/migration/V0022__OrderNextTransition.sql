@@ -0,0 +1,7 @@
+-- NEXT_TRANSITION_STATE stays NULL when the order is going to be deleted at NEXT_TRANSITION_AT,
+-- both columns are filled by the application on startup since they depend on the configured timeouts
+ALTER TABLE MEAL_ORDER
+    ADD COLUMN NEXT_TRANSITION_AT    TIMESTAMP WITH TIME ZONE,
+    ADD COLUMN NEXT_TRANSITION_STATE ORDER_STATE;
+
+CREATE INDEX IDX_ORDER_NEXT_TRANSITION ON MEAL_ORDER (NEXT_TRANSITION_AT, STATE) WHERE NEXT_TRANSITION_AT IS NOT NULL;
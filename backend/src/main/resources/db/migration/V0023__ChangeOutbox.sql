@@ -0,0 +1,8 @@
+CREATE TABLE CHANGE_OUTBOX
+(
+    ID         BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+    EVENT      VARCHAR(64)              NOT NULL,
+    ENTITY_ID  UUID                     NOT NULL,
+    PAYLOAD    JSONB,
+    CREATED_AT TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT NOW()
+);
@@ -0,0 +1,67 @@
+-- stamped with the id of the writing transaction instead of a sequence value: transactions commit out of order,
+-- but every transaction below the xmin of a snapshot is visible to it, which makes the xmin a safe sync token
+CREATE FUNCTION STAMP_CHANGE_SEQ() RETURNS TRIGGER AS
+$$
+BEGIN
+    NEW.CHANGE_SEQ := PG_CURRENT_XACT_ID()::TEXT::BIGINT;
+    RETURN NEW;
+END;
+$$ LANGUAGE PLPGSQL;
+
+ALTER TABLE MEAL_ORDER
+    ADD COLUMN CHANGE_SEQ BIGINT NOT NULL DEFAULT 0;
+
+ALTER TABLE ORDER_POSITION
+    ADD COLUMN CHANGE_SEQ BIGINT NOT NULL DEFAULT 0;
+
+CREATE INDEX IDX_ORDER_CHANGE_SEQ ON MEAL_ORDER (CHANGE_SEQ);
+CREATE INDEX IDX_ORDER_POSITION_CHANGE_SEQ ON ORDER_POSITION (CHANGE_SEQ);
+
+CREATE TRIGGER TRG_ORDER_CHANGE_SEQ
+    BEFORE INSERT OR UPDATE
+    ON MEAL_ORDER
+    FOR EACH ROW
+EXECUTE FUNCTION STAMP_CHANGE_SEQ();
+
+CREATE TRIGGER TRG_ORDER_POSITION_CHANGE_SEQ
+    BEFORE INSERT OR UPDATE
+    ON ORDER_POSITION
+    FOR EACH ROW
+EXECUTE FUNCTION STAMP_CHANGE_SEQ();
+
+CREATE TABLE ORDER_TOMBSTONE
+(
+    ORDER_ID   UUID PRIMARY KEY         NOT NULL,
+    CHANGE_SEQ BIGINT                   NOT NULL,
+    DELETED_AT TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT NOW()
+);
+
+CREATE INDEX IDX_ORDER_TOMBSTONE_CHANGE_SEQ ON ORDER_TOMBSTONE (CHANGE_SEQ);
+
+-- covers every way an order is deleted, including the ones of a deleted restaurant
+CREATE FUNCTION RECORD_ORDER_TOMBSTONE() RETURNS TRIGGER AS
+$$
+BEGIN
+    INSERT INTO ORDER_TOMBSTONE (ORDER_ID, CHANGE_SEQ)
+    VALUES (OLD.ID, PG_CURRENT_XACT_ID()::TEXT::BIGINT)
+    ON CONFLICT (ORDER_ID) DO UPDATE SET CHANGE_SEQ = EXCLUDED.CHANGE_SEQ,
+                                         DELETED_AT = EXCLUDED.DELETED_AT;
+    RETURN OLD;
+END;
+$$ LANGUAGE PLPGSQL;
+
+CREATE TRIGGER TRG_ORDER_TOMBSTONE
+    AFTER DELETE
+    ON MEAL_ORDER
+    FOR EACH ROW
+EXECUTE FUNCTION RECORD_ORDER_TOMBSTONE();
+
+-- tokens below PRUNED_BEFORE may have missed pruned tombstones and need a full sync
+CREATE TABLE ORDER_CHANGE_HORIZON
+(
+    ID            BOOLEAN PRIMARY KEY NOT NULL DEFAULT TRUE CHECK (ID),
+    PRUNED_BEFORE BIGINT              NOT NULL
+);
+
+INSERT INTO ORDER_CHANGE_HORIZON (PRUNED_BEFORE)
+VALUES (0);
@@ -0,0 +1,12 @@
+ALTER TABLE MENU_PAGE
+    ADD COLUMN THUMBNAIL_UNSUPPORTED BOOLEAN NOT NULL DEFAULT FALSE,
+    ADD COLUMN THUMBNAIL_FAILURES    INTEGER NOT NULL DEFAULT 0 CHECK (0 <= THUMBNAIL_FAILURES),
+    ADD COLUMN THUMBNAIL_RETRY_AT    TIMESTAMP WITH TIME ZONE;
+
+-- pages that could not be decoded got their original as thumbnail, they are served the original directly now
+UPDATE MENU_PAGE
+SET THUMBNAIL_MEDIA_TYPE  = NULL,
+    THUMBNAIL_SIZE        = NULL,
+    THUMBNAIL_HASH        = NULL,
+    THUMBNAIL_UNSUPPORTED = TRUE
+WHERE THUMBNAIL_HASH = IMAGE_DATA_HASH;
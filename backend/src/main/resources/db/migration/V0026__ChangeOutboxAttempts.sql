@@ -0,0 +1,16 @@
+-- NULL means every observer still has to process the entry
+ALTER TABLE CHANGE_OUTBOX
+    ADD COLUMN ATTEMPTS          INTEGER NOT NULL DEFAULT 0 CHECK (0 <= ATTEMPTS),
+    ADD COLUMN PENDING_OBSERVERS TEXT[];
+
+CREATE TABLE CHANGE_OUTBOX_DEAD_LETTER
+(
+    ID               BIGINT PRIMARY KEY       NOT NULL,
+    EVENT            VARCHAR(64)              NOT NULL,
+    ENTITY_ID        UUID                     NOT NULL,
+    PAYLOAD          JSONB,
+    CREATED_AT       TIMESTAMP WITH TIME ZONE NOT NULL,
+    ATTEMPTS         INTEGER                  NOT NULL,
+    FAILED_OBSERVERS TEXT[],
+    PARKED_AT        TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT NOW()
+);
@@ -0,0 +1,45 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChangeEventLogTest {
+
+    private final ChangeEventLog history = new ChangeEventLog(3);
+
+    @Test
+    void checkThatOnlyMissedEntriesAreReplayed() {
+        history.append("a", null);
+        history.append("b", null);
+        history.append("c", null);
+
+        assertThat(history.after(1)).hasValueSatisfying(entries ->
+                assertThat(entries).extracting(ChangeEventLog.Entry::message).containsExactly("b", "c"));
+        assertThat(history.after(3)).hasValueSatisfying(entries -> assertThat(entries).isEmpty());
+    }
+
+    @Test
+    void checkThatWrappedOrUnknownIdsRequireReload() {
+        for (var message : new String[]{"a", "b", "c", "d", "e"})
+            history.append(message, null);
+
+        assertThat(history.after(1)).isEmpty();
+        assertThat(history.after(2)).hasValueSatisfying(entries ->
+                assertThat(entries).extracting(ChangeEventLog.Entry::message).containsExactly("c", "d", "e"));
+        assertThat(history.after(6)).isEmpty();
+    }
+
+    @Test
+    void checkThatEntriesAreFilteredByTopics() {
+        var entry = history.append("a", Set.of(WebsocketTopics.ORDERS));
+        var broadcast = history.append("b", null);
+
+        assertThat(entry.isFor(Set.of())).isTrue();
+        assertThat(entry.isFor(Set.of(WebsocketTopics.ORDERS))).isTrue();
+        assertThat(entry.isFor(Set.of(WebsocketTopics.RESTAURANTS))).isFalse();
+        assertThat(broadcast.isFor(Set.of(WebsocketTopics.RESTAURANTS))).isTrue();
+    }
+}
@@ -0,0 +1,107 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.sky.meal.ordering.mealordering.TestcontainersConfiguration;
+import generated.sky.meal.ordering.rest.model.ChangeEvent;
+import generated.sky.meal.ordering.rest.model.Order;
+import generated.sky.meal.ordering.rest.model.OrderDelta;
+import org.junit.jupiter.api.Test;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Import(TestcontainersConfiguration.class)
+@SpringBootTest
+class ClusterMessageBroadcasterTest {
+
+    @Autowired
+    private ClusterMessageBroadcaster broadcaster;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ObjectMapper mapper;
+
+    @Test
+    void checkThatPublishedMessagesReachAnotherConnection() throws Exception {
+        try (var connection = listen()) {
+            broadcaster.sendMessage("{\"subject\":\"test\"}", Set.of(WebsocketTopics.ORDERS));
+
+            var received = receive(connection);
+
+            assertThat(received)
+                    .extracting(ClusterMessageBroadcaster.Message::message)
+                    .containsExactly("{\"subject\":\"test\"}");
+            assertThat(received)
+                    .extracting(ClusterMessageBroadcaster.Message::topics)
+                    .containsExactly(Set.of(WebsocketTopics.ORDERS));
+        }
+    }
+
+    @Test
+    void checkThatOversizedChangeEventsAreRelayedWithoutPayload() throws Exception {
+        var id = UUID.randomUUID();
+        var event = ChangeEvent.builder()
+                .eventType(ChangeEvent.EventTypeEnum.ORDER_UPDATED)
+                .subjects(new ArrayList<>(List.of(id)))
+                .orderDeltas(new ArrayList<>(List.of(OrderDelta.builder()
+                        .id(id)
+                        .snapshot(Order.builder().id(id).orderText("x".repeat(10_000)).build())
+                        .refetch(false)
+                        .build())))
+                .build();
+
+        try (var connection = listen()) {
+            broadcaster.sendMessage(mapper.writeValueAsString(event), Set.of(WebsocketTopics.order(id)));
+
+            var received = receive(connection);
+            assertThat(received).hasSize(1);
+
+            var relayed = mapper.readValue(received.getFirst().message(), ChangeEvent.class);
+            assertThat(relayed.getEventType()).isEqualTo(ChangeEvent.EventTypeEnum.ORDER_UPDATED);
+            assertThat(relayed.getSubjects()).containsExactly(id);
+            assertThat(relayed.getOrderDeltas()).singleElement().satisfies(delta -> {
+                assertThat(delta.getId()).isEqualTo(id);
+                assertThat(delta.getRefetch()).isTrue();
+                assertThat(delta.getSnapshot()).isNull();
+            });
+        }
+    }
+
+    private Connection listen() throws SQLException {
+        var connection = dataSource.getConnection();
+        connection.setAutoCommit(true);
+
+        try (var statement = connection.createStatement()) {
+            statement.execute("LISTEN " + ClusterMessageBroadcaster.NOTIFICATION_CHANNEL);
+        }
+
+        return connection;
+    }
+
+    private List<ClusterMessageBroadcaster.Message> receive(Connection connection) throws Exception {
+        var received = new ArrayList<ClusterMessageBroadcaster.Message>();
+        var deadline = System.currentTimeMillis() + 10_000;
+
+        while (received.isEmpty() && System.currentTimeMillis() < deadline) {
+            var notifications = connection.unwrap(PGConnection.class).getNotifications(500);
+            for (var notification : notifications == null ? new PGNotification[0] : notifications)
+                received.addAll(mapper.readValue(notification.getParameter(), ClusterMessageBroadcaster.Envelope.class).messages());
+        }
+
+        return received;
+    }
+}
@@ -0,0 +1,57 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import de.sky.meal.ordering.mealordering.config.BlobStoreConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileSystemBlobStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private FileSystemBlobStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new FileSystemBlobStore(new BlobStoreConfiguration(directory, false), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void checkThatContentIsAddressedBySha256() throws Exception {
+        var blob = store.store(new ByteArrayInputStream("menu".getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(blob.hash()).isEqualTo("398991009da1d251792eb353a0b7b185bc83e71e12e489e73228b554fc6cebc5");
+        assertThat(blob.size()).isEqualTo(4);
+
+        var resource = store.load(blob.hash());
+        assertThat(resource).isPresent();
+        assertThat(resource.get().getContentAsString(StandardCharsets.UTF_8)).isEqualTo("menu");
+    }
+
+    @Test
+    void checkThatIdenticalContentIsStoredOnce() throws Exception {
+        var first = store.store(new ByteArrayInputStream("page".getBytes(StandardCharsets.UTF_8)));
+        var second = store.store(new ByteArrayInputStream("page".getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(second).isEqualTo(first);
+
+        try (var files = Files.walk(directory)) {
+            assertThat(files.filter(Files::isRegularFile).count()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void checkThatUnknownHashesAreNotResolved() {
+        assertThat(store.load("0".repeat(64))).isEmpty();
+        assertThat(store.load("../../etc/passwd")).isEmpty();
+    }
+}
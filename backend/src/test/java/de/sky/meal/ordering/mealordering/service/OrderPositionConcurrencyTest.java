@@ -0,0 +1,147 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import de.sky.meal.ordering.mealordering.TestcontainersConfiguration;
+import de.sky.meal.ordering.mealordering.model.exceptions.WrongMealCountException;
+import generated.sky.meal.ordering.rest.model.Order;
+import generated.sky.meal.ordering.rest.model.OrderInfosPatch;
+import generated.sky.meal.ordering.rest.model.OrderPosition;
+import generated.sky.meal.ordering.rest.model.OrderPositionPatch;
+import generated.sky.meal.ordering.rest.model.RestaurantPatch;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Slf4j
+@Import(TestcontainersConfiguration.class)
+@SpringBootTest
+class OrderPositionConcurrencyTest {
+
+    private static final int POSITIONS = 64;
+
+    @Autowired
+    private RestaurantRepository restaurantRepository;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Test
+    void checkThatConcurrentAppendsKeepTheMealLimit() throws Exception {
+        var order = createOrder();
+        orderRepository.updateOrderInfos(order.getId(), order.getVersion(), OrderInfosPatch.builder().maximumMealCount(5).build());
+
+        var results = runConcurrently(20, writer -> () -> orderRepository.addOrderPosition(order.getId(), position("writer-" + writer)));
+
+        var added = 0;
+        for (var result : results) {
+            try {
+                result.get();
+                added++;
+            } catch (ExecutionException e) {
+                assertThat(e.getCause()).isInstanceOf(WrongMealCountException.class);
+            }
+        }
+
+        assertThat(added).isEqualTo(5);
+        assertThat(orderRepository.readOrder(order.getId()).getOrderPositions()).hasSize(5);
+    }
+
+    /**
+     * Only reports the throughput per number of writers, it is run with the benchmark task.
+     */
+    @Test
+    @Tag("benchmark")
+    void measureThroughputWithParallelWriters() throws Exception {
+        for (var writers : List.of(1, 2, 4, 8, 16)) {
+            var order = createOrder();
+            var perWriter = POSITIONS / writers;
+
+            var start = System.nanoTime();
+            var results = runConcurrently(writers, writer -> () -> {
+                for (int i = 0; i < perWriter; i++) {
+                    var name = "writer-" + writer + "-" + i;
+                    var added = orderRepository.addOrderPosition(order.getId(), position(name));
+
+                    var positionId = added.getOrderPositions()
+                            .stream()
+                            .filter(p -> name.equals(p.getName()))
+                            .map(OrderPosition::getId)
+                            .findFirst()
+                            .orElseThrow();
+
+                    orderRepository.updateOrderPosition(order.getId(), positionId, position(name, 10L));
+                }
+                return null;
+            });
+
+            for (var result : results)
+                result.get();
+
+            var elapsed = (System.nanoTime() - start) / 1e9;
+            log.info("{} parallel writers: {} position writes in {}s, {} writes/s", writers, 2 * POSITIONS, "%.2f".formatted(elapsed), "%.1f".formatted(2 * POSITIONS / elapsed));
+
+            var positions = orderRepository.readOrder(order.getId()).getOrderPositions();
+            assertThat(positions).hasSize(POSITIONS);
+            assertThat(positions).allSatisfy(p -> assertThat(p.getPaid()).isEqualTo(10L));
+        }
+    }
+
+    private Order createOrder() {
+        var restaurant = restaurantRepository.createRestaurant(RestaurantPatch.builder()
+                .name("Restaurant " + UUID.randomUUID())
+                .build());
+
+        return orderRepository.createNewEmptyOrder(LocalDate.now(), restaurant.getId());
+    }
+
+    private static OrderPositionPatch position(String name) {
+        return position(name, null);
+    }
+
+    private static OrderPositionPatch position(String name, Long paid) {
+        return OrderPositionPatch.builder()
+                .name(name)
+                .meal("Curry")
+                .price(850L)
+                .paid(paid)
+                .build();
+    }
+
+    private static <T> List<Future<T>> runConcurrently(int writers, WriterFactory<T> factory) throws InterruptedException {
+        var ready = new CountDownLatch(1);
+        var results = new ArrayList<Future<T>>();
+
+        try (var executor = Executors.newFixedThreadPool(writers)) {
+            for (int writer = 0; writer < writers; writer++) {
+                var task = factory.create(writer);
+                results.add(executor.submit(() -> {
+                    ready.await();
+                    return task.call();
+                }));
+            }
+
+            ready.countDown();
+        }
+
+        return results;
+    }
+
+    @FunctionalInterface
+    private interface WriterFactory<T> {
+        Callable<T> create(int writer);
+    }
+}
@@ -0,0 +1,61 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import de.sky.meal.ordering.mealordering.TestcontainersConfiguration;
+import de.sky.meal.ordering.mealordering.config.OrderConfiguration;
+import generated.sky.meal.ordering.rest.model.OrderPositionPatch;
+import generated.sky.meal.ordering.rest.model.OrderStateType;
+import generated.sky.meal.ordering.rest.model.RestaurantPatch;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.LocalDate;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Import(TestcontainersConfiguration.class)
+@SpringBootTest
+class OrderRepositoryTest {
+
+    @Autowired
+    private OrderConfiguration config;
+
+    @Autowired
+    private RestaurantRepository restaurantRepository;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Test
+    void checkThatAddingPositionToRevokedOrderResetsTheDeadline() {
+        var restaurant = restaurantRepository.createRestaurant(RestaurantPatch.builder()
+                .name("Restaurant " + UUID.randomUUID())
+                .build());
+
+        var order = orderRepository.createNewEmptyOrder(LocalDate.now(), restaurant.getId());
+        var opened = orderRepository.addOrderPosition(order.getId(), position("first"));
+
+        var revoked = orderRepository.revokeOrder(order.getId(), opened.getVersion());
+        assertThat(revoked.getOrderState()).isEqualTo(OrderStateType.REVOKED);
+        assertThat(revoked.getStateManagement().getNextTransitionTimestamp().toInstant())
+                .isEqualTo(revoked.getStateManagement().getRevokedAt().plus(config.stateTimeouts().revokedBeforeDeleted()).toInstant());
+
+        var reopened = orderRepository.addOrderPosition(order.getId(), position("second"));
+        assertThat(reopened.getOrderState()).isEqualTo(OrderStateType.OPEN);
+        assertThat(reopened.getStateManagement().getNextTransitionTimestamp().toInstant())
+                .isEqualTo(reopened.getCreatedAt().plus(config.stateTimeouts().maxOpenTime()).toInstant());
+
+        assertThat(orderRepository.readOrder(order.getId()).getStateManagement().getNextTransitionTimestamp().toInstant())
+                .isEqualTo(reopened.getStateManagement().getNextTransitionTimestamp().toInstant());
+    }
+
+    private static OrderPositionPatch position(String name) {
+        return OrderPositionPatch.builder()
+                .name(name)
+                .meal("Curry")
+                .price(850L)
+                .build();
+    }
+}
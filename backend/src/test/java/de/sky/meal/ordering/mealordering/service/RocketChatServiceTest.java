@@ -0,0 +1,164 @@
+package de.sky.meal.ordering.mealordering.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import de.sky.meal.ordering.mealordering.config.NotificationConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RocketChatServiceTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final AtomicInteger logins = new AtomicInteger();
+    private final AtomicInteger failingPosts = new AtomicInteger();
+    private final AtomicInteger failureStatus = new AtomicInteger(500);
+    private final BlockingQueue<String> postedMessages = new LinkedBlockingQueue<>();
+
+    private HttpServer server;
+    private RocketChatService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+
+        server.createContext("/api/v1/login", exchange -> {
+            var token = "token-" + logins.incrementAndGet();
+            respond(exchange, 200, """
+                    {"status": "success", "data": {"userId": "user", "authToken": "%s"}}
+                    """.formatted(token));
+        });
+
+        server.createContext("/api/v1/chat.postMessage", exchange -> {
+            var body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+
+            if (failingPosts.getAndDecrement() > 0) {
+                respond(exchange, failureStatus.get(), "{\"success\": false}");
+                return;
+            }
+
+            postedMessages.add(exchange.getRequestHeaders().getFirst("X-Auth-Token") + " " + body);
+            respond(exchange, 200, "{\"success\": true}");
+        });
+
+        server.start();
+
+        var config = new NotificationConfiguration.RocketChatConfig(
+                true,
+                "http://localhost:" + server.getAddress().getPort(),
+                "user",
+                "password",
+                "channel",
+                Duration.ofSeconds(1),
+                Duration.ofSeconds(1),
+                Duration.ofMillis(300),
+                10,
+                3,
+                Duration.ofMillis(10)
+        );
+
+        service = new RocketChatService(new NotificationConfiguration(config, "http://localhost"), meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        service.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    void checkThatBurstsAreCoalescedAndTokenIsReused() throws InterruptedException {
+        service.sendMessage("first");
+        service.sendMessage("second");
+        service.sendMessage("third");
+
+        var posted = postedMessages.poll(5, TimeUnit.SECONDS);
+        assertThat(posted).startsWith("token-1 ").contains("first\\nsecond\\nthird");
+
+        service.sendMessage("fourth");
+
+        assertThat(postedMessages.poll(5, TimeUnit.SECONDS)).startsWith("token-1 ").contains("fourth");
+        assertThat(logins).hasValue(1);
+        assertThat(meterRegistry.counter("notification.rocketchat.coalesced").count()).isEqualTo(2);
+    }
+
+    @Test
+    void checkThatRejectedTokenIsRefreshed() throws InterruptedException {
+        failureStatus.set(401);
+        failingPosts.set(1);
+
+        service.sendMessage("message");
+
+        assertThat(postedMessages.poll(5, TimeUnit.SECONDS)).startsWith("token-2 ").contains("message");
+        assertThat(logins).hasValue(2);
+    }
+
+    @Test
+    void checkThatFailedSendsAreRetried() throws InterruptedException {
+        failingPosts.set(2);
+
+        service.sendMessage("message");
+
+        assertThat(postedMessages.poll(5, TimeUnit.SECONDS)).contains("message");
+        assertThat(meterRegistry.counter("notification.rocketchat.retry").count()).isEqualTo(2);
+        assertThat(logins).hasValue(1);
+    }
+
+    @Test
+    void checkThatClientErrorsAreNotRetried() throws InterruptedException {
+        failureStatus.set(400);
+        failingPosts.set(1);
+
+        service.sendMessage("rejected");
+        assertThat(postedMessages.poll(1, TimeUnit.SECONDS)).isNull();
+
+        service.sendMessage("accepted");
+
+        assertThat(postedMessages.poll(5, TimeUnit.SECONDS)).contains("accepted").doesNotContain("rejected");
+        assertThat(meterRegistry.counter("notification.rocketchat.retry").count()).isZero();
+    }
+
+    @Test
+    void checkThatRateLimitedSendsAreRetried() throws InterruptedException {
+        failureStatus.set(429);
+        failingPosts.set(1);
+
+        service.sendMessage("message");
+
+        assertThat(postedMessages.poll(5, TimeUnit.SECONDS)).contains("message");
+        assertThat(meterRegistry.counter("notification.rocketchat.retry").count()).isEqualTo(1);
+    }
+
+    @Test
+    void checkThatLongMessagesAreSplit() {
+        var line = "x".repeat(3000);
+
+        assertThat(RocketChatService.split(line + "\n" + line)).containsExactly(line, line);
+        assertThat(RocketChatService.split("y".repeat(9000))).hasSize(3).allSatisfy(chunk -> assertThat("`Mealtime:` " + chunk).hasSizeLessThanOrEqualTo(4000));
+        assertThat(RocketChatService.split("short")).containsExactly("short");
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        var bytes = body.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (var out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package de.sky.meal.ordering.mealordering.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimerWheelTest {
+
+    private final Instant start = Instant.parse("2025-01-01T11:59:58Z");
+    private final TimerWheel<String, Integer> wheel = new TimerWheel<>(Duration.ofSeconds(1), start);
+
+    @Test
+    void checkThatEntriesExpireNotBeforeTheirDeadline() {
+        wheel.schedule("a", 1, start.plusSeconds(5));
+
+        assertThat(wheel.advance(start.plusSeconds(4))).isEmpty();
+        assertThat(wheel.advance(start.plusSeconds(5))).containsEntry("a", 1);
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void checkThatOverdueEntriesExpireOnNextAdvance() {
+        wheel.schedule("a", 1, start.minusSeconds(60));
+
+        assertThat(wheel.advance(start)).containsEntry("a", 1);
+    }
+
+    @Test
+    void checkThatRescheduleReplacesAndCancelRemoves() {
+        wheel.schedule("a", 1, start.plusSeconds(5));
+        wheel.schedule("a", 2, start.plusSeconds(50));
+        wheel.schedule("b", 3, start.plusSeconds(5));
+        wheel.cancel("b");
+
+        assertThat(wheel.advance(start.plusSeconds(10))).isEmpty();
+        assertThat(wheel.advance(start.plusSeconds(50))).containsOnlyKeys("a").containsEntry("a", 2);
+    }
+
+    @Test
+    void checkThatFarDeadlinesCascadeThroughAllLevels() {
+        var random = new Random(42);
+        var deadlines = new HashMap<String, Instant>();
+
+        for (int i = 0; i < 2_000; i++) {
+            var deadline = start.plusMillis(random.nextLong(Duration.ofDays(400).toMillis()));
+            deadlines.put("key" + i, deadline);
+            wheel.schedule("key" + i, i, deadline);
+        }
+
+        var now = start;
+        var expired = 0;
+        while (expired < deadlines.size()) {
+            now = now.plus(Duration.ofMinutes(7));
+
+            for (var key : wheel.advance(now).keySet()) {
+                assertThat(deadlines.get(key)).isBeforeOrEqualTo(now).isAfter(now.minus(Duration.ofMinutes(7)));
+                expired++;
+            }
+        }
+
+        assertThat(wheel.size()).isZero();
+    }
+}